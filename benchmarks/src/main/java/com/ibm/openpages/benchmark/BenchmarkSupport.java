@@ -0,0 +1,50 @@
+package com.ibm.openpages.benchmark;
+
+import com.ibm.openpages.constants.ConstantString;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Setup shared by the benchmarks.
+ *
+ * @project currency_op
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * The trigger logs to System.out, which would dominate the measurements. Only the forked
+     * benchmark JVM is silenced, JMH reports from the host JVM.
+     */
+    static void silenceStandardOutput() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    /**
+     * Points the rate snapshot to a fresh temporary file, so runs do not read or overwrite
+     * the snapshot of a local installation.
+     */
+    static void isolateSnapshot() {
+        try {
+            File snapshot = File.createTempFile("currency_op_bench", ".bin");
+            snapshot.delete();
+            snapshot.deleteOnExit();
+            System.setProperty(ConstantString.SNAPSHOT_PATH_PROPERTY, snapshot.getAbsolutePath());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
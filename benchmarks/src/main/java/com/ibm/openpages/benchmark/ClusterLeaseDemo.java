@@ -0,0 +1,112 @@
+package com.ibm.openpages.benchmark;
+
+import com.ibm.openpages.constants.ConstantString;
+import com.ibm.openpages.handler.RateRefreshService;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Runs several OpenPages "nodes" as separate JVMs on this machine to show that only one of them
+ * refreshes a month.
+ * </p>
+ * <p>
+ * The launcher starts a {@link ValetStubServer} and a cluster directory, then spawns the nodes
+ * with the same classpath, pointed to both with currency.valet.baseUrl and currency.cluster.dir.
+ * Every node signals the refresh at the same time and reports the rates it wrote to its own
+ * {@link StubConfigurationService}; a single node is expected to write, and the stub to receive
+ * the requests of a single refresh.
+ * </p>
+ * <p>
+ * Settings, as system properties: cluster.nodes (3), stub.latencyMillis (200).
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class ClusterLeaseDemo {
+
+    private static final String NODE_ARGUMENT = "node";
+
+    private ClusterLeaseDemo() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && NODE_ARGUMENT.equals(args[0])) {
+            runNode(args[1]);
+        } else {
+            launch();
+        }
+    }
+
+    private static void launch() throws Exception {
+        int nodes = Integer.getInteger("cluster.nodes", 3);
+        long latencyMillis = Long.getLong("stub.latencyMillis", 200L);
+        Path clusterDirectory = Files.createTempDirectory("currency_op_cluster");
+
+        try (ValetStubServer stub = new ValetStubServer(0, latencyMillis, 0.0, 8).start()) {
+            System.out.println("Valet stub at " + stub.getBaseUrl() + ", cluster directory " + clusterDirectory);
+
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            List<Process> processes = new ArrayList<>();
+            for (int i = 1; i <= nodes; i++) {
+                ProcessBuilder builder = new ProcessBuilder(Arrays.asList(java,
+                        "-cp", System.getProperty("java.class.path"),
+                        "-D" + ConstantString.VALET_BASE_URL_PROPERTY + "=" + stub.getBaseUrl(),
+                        "-D" + ConstantString.CLUSTER_DIR_PROPERTY + "=" + clusterDirectory,
+                        ClusterLeaseDemo.class.getName(), NODE_ARGUMENT, String.valueOf(i)));
+                builder.redirectErrorStream(true);
+                processes.add(builder.start());
+            }
+
+            for (Process process : processes) {
+                try (BufferedReader output = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = output.readLine()) != null) {
+                        System.out.println(line);
+                    }
+                }
+                process.waitFor(2, TimeUnit.MINUTES);
+            }
+
+            System.out.println();
+            System.out.printf("upstream requests %d (group observations %d, series %d)%n", stub.getRequests(),
+                    stub.getGroupObservationRequests(), stub.getSeriesObservationRequests());
+        }
+    }
+
+    private static void runNode(String node) throws Exception {
+        // Nodes do not log the trigger output, only their result
+        PrintStream out = System.out;
+        BenchmarkSupport.silenceStandardOutput();
+
+        String[] activeCodes = Arrays.copyOf(ValetFixtures.CODES, ValetFixtures.CODES.length + 1);
+        activeCodes[activeCodes.length - 1] = "CAD";
+        StubConfigurationService configuration = new StubConfigurationService(activeCodes, 200L);
+
+        RateRefreshService service = RateRefreshService.getInstance();
+        YearMonth month = RateRefreshService.getTargetMonth();
+        service.signal(configuration.getService());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (!service.isApplied(month) && System.nanoTime() < deadline) {
+            // The refresh only prepares the rates, the next trigger writes them
+            service.refresh(month).get(60, TimeUnit.SECONDS);
+            service.signal(configuration.getService());
+        }
+
+        out.printf("node %s: month %s applied %b, rates written %d%n",
+                node, month, service.isApplied(month), configuration.getWrites());
+    }
+}
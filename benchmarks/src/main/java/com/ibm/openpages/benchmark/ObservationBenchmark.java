@@ -0,0 +1,52 @@
+package com.ibm.openpages.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.openpages.util.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Util#getObservationLabels} / {@link Util#listModificator} on the group details.
+ *
+ * @project currency_op
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObservationBenchmark {
+
+    private JsonNode groupDetails;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkSupport.silenceStandardOutput();
+        ObjectMapper objectMapper = new ObjectMapper();
+        groupDetails = objectMapper.readTree(ValetFixtures.load(ValetFixtures.Fixture.GROUP_DETAILS));
+    }
+
+    @Benchmark
+    public List<String> observationLabels() {
+        return Util.getObservationLabels(groupDetails);
+    }
+
+    @Benchmark
+    public List<String> listModificator() {
+        return Util.listModificator(groupDetails);
+    }
+}
@@ -0,0 +1,79 @@
+package com.ibm.openpages.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ibm.openpages.beans.RateSeries;
+import com.ibm.openpages.util.ObservationParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monthly rate lookup on Valet responses of increasing size through the streaming path of
+ * {@link ObservationParser} and {@link RateSeries}, against the JsonNode tree parse of the
+ * same body as a baseline.
+ *
+ * @project currency_op
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+    @Param({"ONE_MONTH", "FULL_HISTORY", "ALL_SERIES"})
+    public ValetFixtures.Fixture fixture;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] body;
+    private YearMonth month;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkSupport.silenceStandardOutput();
+        body = ValetFixtures.load(fixture);
+        month = ValetFixtures.targetMonth();
+    }
+
+    /**
+     * Tree parsing of the whole body, the baseline the streaming parse is compared with.
+     */
+    @Benchmark
+    public JsonNode treeParse() throws IOException {
+        return objectMapper.readTree(body);
+    }
+
+    /**
+     * Streaming parse of every series into a {@link RateSeries}, as fetched by the trigger.
+     */
+    @Benchmark
+    public Map<String, RateSeries> streamingGroupSeries() throws IOException {
+        return ObservationParser.readGroupSeries(new ByteArrayInputStream(body));
+    }
+
+    /**
+     * Streaming parse followed by the lookup of the month, the cost paid per response.
+     */
+    @Benchmark
+    public double streamingMonthlyRate() throws IOException {
+        RateSeries series = ObservationParser.readGroupSeries(new ByteArrayInputStream(body)).get("USD");
+        return series != null ? series.get(RateSeries.epochMonth(month)) : 0.0;
+    }
+}
@@ -0,0 +1,106 @@
+package com.ibm.openpages.benchmark;
+
+import com.ibm.openpages.handler.RateRefreshService;
+import com.ibm.openpages.util.ConfigurationServiceCache;
+import com.ibm.openpages.util.RateCache;
+import com.ibm.openpages.util.RateConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.YearMonth;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-currency compute-and-round path of the trigger, alone and inside the whole refresh
+ * loop run against a stubbed configuration service with every rate already cached, so no
+ * network call is made.
+ *
+ * @project currency_op
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateComputationBenchmark {
+
+    /**
+     * Number of active currencies, CAD included.
+     */
+    @Param({"5", "27"})
+    public int activeCurrencies;
+
+    /**
+     * True to have the stub report the rates already set, so the batch writes nothing.
+     */
+    @Param({"false", "true"})
+    public boolean unchanged;
+
+    private double[] monthlyRates;
+    private YearMonth month;
+    private StubConfigurationService configurationService;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.silenceStandardOutput();
+        BenchmarkSupport.isolateSnapshot();
+
+        month = RateRefreshService.getTargetMonth();
+        String[] codes = new String[activeCurrencies];
+        codes[0] = "CAD";
+        monthlyRates = new double[ValetFixtures.CODES.length];
+        for (int i = 0; i < ValetFixtures.CODES.length; i++) {
+            String code = ValetFixtures.CODES[i];
+            monthlyRates[i] = Double.parseDouble(ValetFixtures.format(ValetFixtures.rate(code, i)));
+            RateCache.getInstance().put(code, month, monthlyRates[i]);
+            if (i + 1 < activeCurrencies) {
+                codes[i + 1] = code;
+            }
+        }
+        configurationService = new StubConfigurationService(codes, 0);
+        configurationService.setReportCurrentRates(unchanged);
+        ConfigurationServiceCache.invalidateCurrencies();
+        RateRefreshService.refreshRates(configurationService.getService(), month);
+    }
+
+    /**
+     * 1 / rate rounded to 4 decimals with BigDecimal, for every series.
+     */
+    @Benchmark
+    public void computeAndRound(Blackhole blackhole) {
+        for (double averageMonthlyRates : monthlyRates) {
+            double result = 1 / averageMonthlyRates;
+            BigDecimal decimalResult = new BigDecimal(result);
+            decimalResult = decimalResult.setScale(4, RoundingMode.HALF_UP);
+            blackhole.consume(decimalResult.doubleValue());
+        }
+    }
+
+    /**
+     * The same with the scaled long arithmetic of {@link RateConverter}.
+     */
+    @Benchmark
+    public void computeAndRoundFixedPoint(Blackhole blackhole) {
+        for (double averageMonthlyRates : monthlyRates) {
+            blackhole.consume(RateConverter.invert(averageMonthlyRates));
+        }
+    }
+
+    @Benchmark
+    public boolean refreshLoop() {
+        return RateRefreshService.refreshRates(configurationService.getService(), month);
+    }
+}
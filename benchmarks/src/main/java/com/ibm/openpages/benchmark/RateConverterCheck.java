@@ -0,0 +1,98 @@
+package com.ibm.openpages.benchmark;
+
+import com.ibm.openpages.util.RateConverter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.YearMonth;
+import java.util.Random;
+
+/**
+ * <p>
+ * Checks {@link RateConverter} against BigDecimal.
+ * </p>
+ * <p>
+ * Every monthly average of the fixtures history, every rate with 4 decimals up to
+ * check.maxRate (1000), and check.samples (1000000) small rates with 5 to 10 decimals are
+ * parsed and inverted. The parse must give the double of Double.parseDouble and the inverse
+ * the one of BigDecimal.ONE.divide(rate, 4, HALF_UP). The differences with the former
+ * new BigDecimal(1 / rate).setScale(4, HALF_UP) are counted and the first ones printed; they
+ * can only be ties on the fifth decimal. Exits with 1 on a mismatch.
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class RateConverterCheck {
+
+    private static final int PRINTED_DIFFERENCES = 10;
+
+    private static long checked;
+    private static long mismatches;
+    private static long legacyDifferences;
+
+    private RateConverterCheck() {
+    }
+
+    public static void main(String[] args) {
+        long maxRate = Long.getLong("check.maxRate", 1000L);
+        int samples = Integer.getInteger("check.samples", 1_000_000);
+
+        YearMonth end = ValetFixtures.targetMonth();
+        int months = (int) (end.getYear() * 12L + end.getMonthValue()
+                - ValetFixtures.HISTORY_START.getYear() * 12L - ValetFixtures.HISTORY_START.getMonthValue()) + 1;
+        for (String code : ValetFixtures.CODES) {
+            for (int step = 0; step < months; step++) {
+                check(ValetFixtures.format(ValetFixtures.rate(code, step)));
+            }
+        }
+        System.out.println("fixtures history: " + checked + " rates");
+
+        for (long digits = 1; digits <= maxRate * 10_000L; digits++) {
+            check(BigDecimal.valueOf(digits, 4).toPlainString());
+        }
+        System.out.println("4 decimals up to " + maxRate + ": " + checked + " rates");
+
+        Random random = new Random(42);
+        for (int i = 0; i < samples; i++) {
+            int scale = 5 + random.nextInt(6);
+            check(BigDecimal.valueOf(1 + random.nextInt(99_999), scale).toPlainString());
+        }
+        System.out.println("small rates: " + checked + " rates");
+
+        System.out.println();
+        System.out.printf("checked %d, mismatches %d, differences with the former rounding %d%n",
+                checked, mismatches, legacyDifferences);
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(String text) {
+        checked++;
+        char[] chars = text.toCharArray();
+        double parsed = RateConverter.parse(chars, 0, chars.length);
+        double expectedParse = Double.parseDouble(text);
+        if (Double.doubleToLongBits(parsed) != Double.doubleToLongBits(expectedParse)) {
+            report("parse", text, parsed, expectedParse);
+            return;
+        }
+
+        double inverse = RateConverter.invert(parsed);
+        double exact = BigDecimal.ONE.divide(new BigDecimal(text), 4, RoundingMode.HALF_UP).doubleValue();
+        if (Double.doubleToLongBits(inverse) != Double.doubleToLongBits(exact)) {
+            report("invert", text, inverse, exact);
+            return;
+        }
+
+        double legacy = new BigDecimal(1 / parsed).setScale(4, RoundingMode.HALF_UP).doubleValue();
+        if (inverse != legacy && legacyDifferences++ < PRINTED_DIFFERENCES) {
+            System.out.println("  1 / " + text + ": " + inverse + ", formerly " + legacy);
+        }
+    }
+
+    private static void report(String step, String text, double actual, double expected) {
+        if (mismatches++ < PRINTED_DIFFERENCES) {
+            System.out.println("  MISMATCH " + step + " " + text + ": " + actual + " instead of " + expected);
+        }
+    }
+}
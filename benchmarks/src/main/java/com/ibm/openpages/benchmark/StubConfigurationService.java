@@ -0,0 +1,180 @@
+package com.ibm.openpages.benchmark;
+
+import com.ibm.openpages.api.configuration.IConfigurationFactory;
+import com.ibm.openpages.api.configuration.ICurrency;
+import com.ibm.openpages.api.configuration.IExchangeRate;
+import com.ibm.openpages.api.service.IConfigurationService;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * In-memory stand-in for the OpenPages configuration service.
+ * </p>
+ * <p>
+ * The OpenPages interfaces are implemented with dynamic proxies, so only the methods used by
+ * the trigger have a behaviour: active currencies, exchange rate creation, reads and writes.
+ * Every other method returns a default value. Writes are counted and can be given a latency
+ * to simulate the repository.
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class StubConfigurationService {
+
+    private final List<ICurrency> currencies;
+    private final Map<String, Double> rates = new ConcurrentHashMap<>();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final long writeLatencyNanos;
+    private final IConfigurationService service;
+
+    private volatile boolean reportCurrentRates = true;
+
+    public StubConfigurationService(String[] activeCodes, long writeLatencyMicros) {
+        List<ICurrency> list = new ArrayList<>(activeCodes.length);
+        for (String code : activeCodes) {
+            list.add(currency(code));
+        }
+        this.currencies = Collections.unmodifiableList(list);
+        this.writeLatencyNanos = TimeUnit.MICROSECONDS.toNanos(writeLatencyMicros);
+        this.service = proxy(IConfigurationService.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getCurrencies":
+                    return currencies;
+                case "getConfigurationFactory":
+                    return factory();
+                case "getCurrentExchangeRate":
+                    reads.incrementAndGet();
+                    String code = ((ICurrency) args[0]).getCurrencyCode().toString();
+                    Double rate = reportCurrentRates ? rates.get(code) : null;
+                    return rate != null ? exchangeRate(code, rate) : null;
+                case "setExchangeRate":
+                    if (writeLatencyNanos > 0) {
+                        LockSupport.parkNanos(writeLatencyNanos);
+                    }
+                    IExchangeRate exchangeRate = (IExchangeRate) args[0];
+                    rates.put(exchangeRate.toString(), exchangeRate.getExchangeRate());
+                    writes.incrementAndGet();
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType(), proxy, method.getName(), args);
+            }
+        });
+    }
+
+    public IConfigurationService getService() {
+        return service;
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getReads() {
+        return reads.get();
+    }
+
+    /**
+     * @param reportCurrentRates False to never report a current rate, so every rate is written again.
+     */
+    public void setReportCurrentRates(boolean reportCurrentRates) {
+        this.reportCurrentRates = reportCurrentRates;
+    }
+
+    public Map<String, Double> getRates() {
+        return rates;
+    }
+
+    public void reset() {
+        rates.clear();
+        writes.set(0);
+        reads.set(0);
+    }
+
+    private IConfigurationFactory factory() {
+        return proxy(IConfigurationFactory.class, (proxy, method, args) -> {
+            if ("createExchangeRate".equals(method.getName())) {
+                return exchangeRate((String) args[1], (Double) args[2]);
+            }
+            return defaultValue(method.getReturnType(), proxy, method.getName(), args);
+        });
+    }
+
+    private static ICurrency currency(String code) {
+        return proxy(ICurrency.class, (proxy, method, args) -> {
+            if ("getCurrencyCode".equals(method.getName())) {
+                return code;
+            }
+            return defaultValue(method.getReturnType(), proxy, method.getName(), args);
+        });
+    }
+
+    /**
+     * The exchange rate proxy returns its ISO code from toString(), used as key of the writes.
+     */
+    private static IExchangeRate exchangeRate(String code, double rate) {
+        return proxy(IExchangeRate.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getExchangeRate":
+                    return rate;
+                case "toString":
+                    return code;
+                default:
+                    return defaultValue(method.getReturnType(), proxy, method.getName(), args);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubConfigurationService.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    static Object defaultValue(Class<?> type, Object proxy, String methodName, Object[] args) {
+        switch (methodName) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "Stub@" + Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                break;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        return null;
+    }
+}
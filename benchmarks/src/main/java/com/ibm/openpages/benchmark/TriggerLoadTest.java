@@ -0,0 +1,162 @@
+package com.ibm.openpages.benchmark;
+
+import com.ibm.openpages.api.metadata.ITypeDefinition;
+import com.ibm.openpages.api.resource.IGRCObject;
+import com.ibm.openpages.api.resource.IResource;
+import com.ibm.openpages.api.service.IConfigurationService;
+import com.ibm.openpages.constants.ConstantString;
+import com.ibm.openpages.handler.CurrencyHandler;
+import com.ibm.openpages.handler.RateRefreshService;
+import com.ibm.openpages.rule.CurrencyRule;
+import com.ibm.openpages.util.TriggerMetrics;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Concurrent load test of the currency trigger against a local {@link ValetStubServer}.
+ * </p>
+ * <p>
+ * Many threads create resources through {@link CurrencyRule} and {@link CurrencyHandler} as
+ * OpenPages would, three out of four being LossEvents. The rule is given the created resource
+ * and the handler the configuration service of the event, a {@link StubConfigurationService},
+ * through their entry points that take no OpenPages event; the resources are proxies built by
+ * the same stub. Once every event was
+ * handled, the background refresh is awaited and the run reports the trigger throughput, its
+ * p50/p99/max latency, the number of requests that reached the stub and the rates written.
+ * </p>
+ * <p>
+ * Settings, as system properties:
+ * load.threads (16), load.events (20000),
+ * stub.latencyMillis (50), stub.errorRate (0.0), stub.threads (8).
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class TriggerLoadTest {
+
+    private static final String LOSS_EVENT = "LossEvent";
+
+    private TriggerLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("load.threads", 16);
+        int events = Integer.getInteger("load.events", 20000);
+        long latencyMillis = Long.getLong("stub.latencyMillis", 50L);
+        double errorRate = Double.parseDouble(System.getProperty("stub.errorRate", "0.0"));
+        int stubThreads = Integer.getInteger("stub.threads", 8);
+
+        try (ValetStubServer stub = new ValetStubServer(0, latencyMillis, errorRate, stubThreads).start()) {
+            // Must be set before the trigger classes read ConstantString
+            System.setProperty(ConstantString.VALET_BASE_URL_PROPERTY, stub.getBaseUrl());
+            // Only the requests of the events are counted
+            System.setProperty(ConstantString.WARMUP_PROPERTY, "false");
+            BenchmarkSupport.isolateSnapshot();
+
+            String[] activeCodes = Arrays.copyOf(ValetFixtures.CODES, ValetFixtures.CODES.length + 1);
+            activeCodes[activeCodes.length - 1] = "CAD";
+            StubConfigurationService configuration = new StubConfigurationService(activeCodes, 200L);
+
+            IResource[] resources = createResources();
+
+            System.out.println("Valet stub at " + stub.getBaseUrl() + ", latency " + latencyMillis
+                    + " ms, error rate " + errorRate);
+            System.out.println("Running " + events + " events on " + threads + " threads");
+
+            long[] latencies = new long[events];
+            AtomicLong matched = new AtomicLong();
+            long elapsed = run(resources, configuration.getService(), latencies, matched, threads);
+
+            // The trigger only signals the refresh, wait for it before counting the upstream calls,
+            // then signal once more so the prepared rates are written as by the next event
+            RateRefreshService refreshService = RateRefreshService.getInstance();
+            boolean complete = refreshService.refresh(RateRefreshService.getTargetMonth())
+                    .get(60, TimeUnit.SECONDS);
+            refreshService.signal(configuration.getService());
+
+            Arrays.sort(latencies);
+            System.out.println();
+            System.out.printf("events            %d (%d LossEvent)%n", events, matched.get());
+            System.out.printf("throughput        %.0f events/s%n", events / (elapsed / 1_000_000_000.0));
+            System.out.printf("latency p50       %.3f ms%n", percentile(latencies, 50) / 1_000_000.0);
+            System.out.printf("latency p99       %.3f ms%n", percentile(latencies, 99) / 1_000_000.0);
+            System.out.printf("latency max       %.3f ms%n", latencies[latencies.length - 1] / 1_000_000.0);
+            System.out.printf("upstream requests %d (group observations %d, series %d, group details %d, "
+                            + "not modified %d, injected errors %d)%n", stub.getRequests(),
+                    stub.getGroupObservationRequests(), stub.getSeriesObservationRequests(),
+                    stub.getGroupDetailsRequests(), stub.getNotModified(), stub.getInjectedErrors());
+            System.out.printf("rates written     %d, refresh complete %b%n", configuration.getWrites(), complete);
+            System.out.println(TriggerMetrics.getInstance().getSummary());
+        }
+    }
+
+    /**
+     * Runs the events on the given number of threads and records the latency of each one.
+     *
+     * @return The wall-clock time of the run in nanoseconds.
+     */
+    private static long run(IResource[] resources, IConfigurationService configurationService, long[] latencies,
+                            AtomicLong matched, int threads) throws Exception {
+        CurrencyRule rule = new CurrencyRule();
+        CurrencyHandler handler = new CurrencyHandler();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?>[] workers = new Future<?>[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            workers[t] = executor.submit(() -> {
+                start.await();
+                for (int i = first; i < latencies.length; i += threads) {
+                    IResource resource = resources[i % resources.length];
+                    long begin = System.nanoTime();
+                    if (rule.isApplicable(resource)) {
+                        handler.handle(configurationService);
+                        matched.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - begin;
+                }
+                return null;
+            });
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        return elapsed;
+    }
+
+    /**
+     * Creates the resources of the events, three LossEvents for one other object.
+     */
+    private static IResource[] createResources() {
+        IGRCObject lossEvent = resource(LOSS_EVENT);
+        IGRCObject otherObject = resource("SOXIssue");
+        return new IResource[]{lossEvent, lossEvent, lossEvent, otherObject};
+    }
+
+    private static IGRCObject resource(String typeName) {
+        ITypeDefinition type = StubConfigurationService.proxy(ITypeDefinition.class, (proxy, method, args) ->
+                "getName".equals(method.getName()) ? typeName
+                        : StubConfigurationService.defaultValue(method.getReturnType(), proxy, method.getName(), args));
+        return StubConfigurationService.proxy(IGRCObject.class, (proxy, method, args) ->
+                "getType".equals(method.getName()) ? type
+                        : StubConfigurationService.defaultValue(method.getReturnType(), proxy, method.getName(), args));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
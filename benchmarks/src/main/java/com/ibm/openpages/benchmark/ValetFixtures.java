@@ -0,0 +1,226 @@
+package com.ibm.openpages.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+
+/**
+ * <p>
+ * Valet API responses used by the benchmarks and the load-test harness.
+ * </p>
+ * <p>
+ * When the valet.fixtures.dir system property points to a folder of recorded responses, the
+ * files of that folder are used (one-month.json, full-history.json, all-series.json,
+ * daily-usd.json and group-details.json). Otherwise responses with the same structure and
+ * realistic sizes are generated deterministically, so runs are comparable between machines.
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class ValetFixtures {
+
+    public static final String FIXTURES_DIR_PROPERTY = "valet.fixtures.dir";
+    public static final String FIXTURES_MONTH_PROPERTY = "valet.fixtures.month";
+
+    /**
+     * The 26 series of the FX_RATES_MONTHLY group, with a typical CAD rate for each.
+     */
+    static final String[] CODES = {
+            "AUD", "BRL", "CNY", "EUR", "HKD", "INR", "IDR", "JPY", "MYR", "MXN", "NZD", "NOK", "PEN",
+            "RUB", "SAR", "SGD", "ZAR", "KRW", "SEK", "CHF", "TWD", "THB", "TRY", "GBP", "USD", "VND"};
+    static final double[] BASE_RATES = {
+            0.9100, 0.2650, 0.1920, 1.4700, 0.1730, 0.0165, 0.000091, 0.0098, 0.2950, 0.0750, 0.8300,
+            0.1250, 0.3650, 0.0170, 0.3610, 1.0100, 0.0720, 0.00102, 0.1280, 1.5000, 0.0440, 0.0390,
+            0.0700, 1.6900, 1.3500, 0.0000575};
+
+    /**
+     * First month of the generated monthly history, decades of data as in the legacy series.
+     */
+    static final YearMonth HISTORY_START = YearMonth.of(1990, 1);
+
+    /**
+     * First day of the generated daily FXUSDCAD series.
+     */
+    static final LocalDate DAILY_START = LocalDate.of(2017, 1, 3);
+
+    public enum Fixture {
+        /**
+         * FXMUSDCAD limited to the target month.
+         */
+        ONE_MONTH("one-month.json"),
+        /**
+         * FXMUSDCAD with its whole monthly history.
+         */
+        FULL_HISTORY("full-history.json"),
+        /**
+         * Group observations of every FXM series with their whole history.
+         */
+        ALL_SERIES("all-series.json"),
+        /**
+         * Daily FXUSDCAD series, as served by {@link ValetStubServer}.
+         */
+        DAILY_USD("daily-usd.json"),
+        /**
+         * FX_RATES_MONTHLY group details, read by getObservationLabels.
+         */
+        GROUP_DETAILS("group-details.json");
+
+        private final String fileName;
+
+        Fixture(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+    }
+
+    private ValetFixtures() {
+    }
+
+    /**
+     * @return The month looked up by the benchmarks, the last month of the fixtures.
+     */
+    public static YearMonth targetMonth() {
+        String month = System.getProperty(FIXTURES_MONTH_PROPERTY);
+        return month != null ? YearMonth.parse(month) : YearMonth.of(2023, 5);
+    }
+
+    public static byte[] load(Fixture fixture) throws IOException {
+        String directory = System.getProperty(FIXTURES_DIR_PROPERTY);
+        if (directory != null) {
+            Path path = Paths.get(directory, fixture.getFileName());
+            if (Files.isRegularFile(path)) {
+                return Files.readAllBytes(path);
+            }
+        }
+        return generate(fixture).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String generate(Fixture fixture) {
+        YearMonth target = targetMonth();
+        switch (fixture) {
+            case ONE_MONTH:
+                return monthlyObservations(new String[]{"USD"}, target, target);
+            case FULL_HISTORY:
+                return monthlyObservations(new String[]{"USD"}, HISTORY_START, target);
+            case ALL_SERIES:
+                return monthlyObservations(CODES, HISTORY_START, target);
+            case DAILY_USD:
+                return dailyObservations(DAILY_START, target.atEndOfMonth());
+            case GROUP_DETAILS:
+                return groupDetails();
+            default:
+                throw new IllegalArgumentException(fixture.name());
+        }
+    }
+
+    /**
+     * Monthly observations of the given FXM{ISO}CAD series, as returned by
+     * /observations/FXM{ISO}CAD or /observations/group/FX_RATES_MONTHLY.
+     */
+    public static String monthlyObservations(String[] codes, YearMonth from, YearMonth to) {
+        StringBuilder json = new StringBuilder(64 + codes.length * 32 * 12 * (to.getYear() - from.getYear() + 1));
+        json.append("{\"terms\":{\"url\":\"https://www.bankofcanada.ca/terms/\"},\"seriesDetail\":{");
+        for (int i = 0; i < codes.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("\"FXM").append(codes[i]).append("CAD\":{\"label\":\"").append(codes[i])
+                    .append("/CAD\",\"description\":\"").append(codes[i])
+                    .append(" to Canadian dollar monthly average\",\"dimension\":{\"key\":\"d\",\"name\":\"date\"}}");
+        }
+        json.append("},\"observations\":[");
+
+        boolean first = true;
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"d\":\"").append(month.atDay(1)).append('"');
+            for (String code : codes) {
+                json.append(",\"FXM").append(code).append("CAD\":{\"v\":\"")
+                        .append(format(rate(code, month.getYear() * 12 + month.getMonthValue()))).append("\"}");
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Daily FXUSDCAD observations on business days.
+     */
+    public static String dailyObservations(LocalDate from, LocalDate to) {
+        StringBuilder json = new StringBuilder(64 + 40 * 260 * (to.getYear() - from.getYear() + 1));
+        json.append("{\"terms\":{\"url\":\"https://www.bankofcanada.ca/terms/\"},\"seriesDetail\":{\"FXUSDCAD\":")
+                .append("{\"label\":\"USD/CAD\",\"description\":\"US dollar to Canadian dollar daily exchange rate\",")
+                .append("\"dimension\":{\"key\":\"d\",\"name\":\"date\"}}},\"observations\":[");
+
+        boolean first = true;
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            if (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY) {
+                continue;
+            }
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"d\":\"").append(day).append("\",\"FXUSDCAD\":{\"v\":\"")
+                    .append(format(rate("USD", (int) day.toEpochDay()))).append("\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * FX_RATES_MONTHLY group details, as returned by /groups/FX_RATES_MONTHLY.
+     */
+    public static String groupDetails() {
+        StringBuilder json = new StringBuilder(4096);
+        json.append("{\"terms\":{\"url\":\"https://www.bankofcanada.ca/terms/\"},\"groupDetails\":{")
+                .append("\"name\":\"FX_RATES_MONTHLY\",\"label\":\"Monthly Exchange Rates\",")
+                .append("\"description\":\"Monthly average exchange rates\",\"groupSeries\":{");
+        for (int i = 0; i < CODES.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("\"FXM").append(CODES[i]).append("CAD\":{\"label\":\"").append(CODES[i])
+                    .append("/CAD\",\"link\":\"https://www.bankofcanada.ca/valet/series/FXM")
+                    .append(CODES[i]).append("CAD\"}");
+        }
+        return json.append("}}}").toString();
+    }
+
+    /**
+     * Deterministic rate oscillating a few percent around the base rate of the currency.
+     */
+    static double rate(String code, int step) {
+        double base = BASE_RATES[0];
+        for (int i = 0; i < CODES.length; i++) {
+            if (CODES[i].equals(code)) {
+                base = BASE_RATES[i];
+                break;
+            }
+        }
+        return base * (1.0 + 0.04 * Math.sin(step / 7.0) + 0.01 * Math.cos(step / 3.0));
+    }
+
+    /**
+     * Valet publishes 4 decimals, or 4 significant digits for very small rates.
+     */
+    static String format(double rate) {
+        int scale = 4;
+        while (scale < 10 && rate * Math.pow(10, scale) < 1000) {
+            scale++;
+        }
+        return new BigDecimal(rate).setScale(scale, RoundingMode.HALF_UP).toPlainString();
+    }
+}
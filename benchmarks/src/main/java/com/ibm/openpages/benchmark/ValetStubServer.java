@@ -0,0 +1,277 @@
+package com.ibm.openpages.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Local stand-in for the Bank of Canada Valet API, serving the responses of {@link ValetFixtures}.
+ * </p>
+ * <p>
+ * The paths read by the trigger are served under /valet: the FX_RATES_MONTHLY group details and
+ * observations, the FXM{ISO}CAD monthly series and the FXUSDCAD daily series. The start_date and
+ * end_date parameters are honoured, and the observations never go past the published month, the
+ * previous month by default, as Valet before the Bank of Canada publishes the new averages.
+ * Every response can be delayed and a fraction of them answered with a 503, and the requests are
+ * counted per path so a load test can report how many calls reached the provider. Responses carry
+ * an ETag, honour If-None-Match with a 304 and are gzip-compressed when the client accepts it.
+ * </p>
+ * <p>
+ * The trigger is pointed to the stub with the currency.valet.baseUrl system property, set to
+ * {@link #getBaseUrl()} before the trigger classes are loaded.
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class ValetStubServer implements Closeable {
+
+    public static final String CONTEXT_PATH = "/valet";
+
+    private static final String GROUP_DETAILS_PATH = "/groups/FX_RATES_MONTHLY";
+    private static final String GROUP_OBSERVATIONS_PATH = "/observations/group/FX_RATES_MONTHLY";
+    private static final String SERIES_OBSERVATIONS_PATH = "/observations/";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, byte[]> responses = new ConcurrentHashMap<>();
+
+    private final LongAdder groupDetailsRequests = new LongAdder();
+    private final LongAdder groupObservationRequests = new LongAdder();
+    private final LongAdder seriesObservationRequests = new LongAdder();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final LongAdder otherRequests = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile YearMonth publishedMonth = YearMonth.now().minusMonths(1);
+
+    /**
+     * @param port          The port to listen on, 0 for any free port.
+     * @param latencyMillis Delay added before every response.
+     * @param errorRate     Fraction of the requests answered with a 503, between 0 and 1.
+     * @param threads       Number of threads serving the requests.
+     */
+    public ValetStubServer(int port, long latencyMillis, double errorRate, int threads) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "valet-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(CONTEXT_PATH, this::handle);
+    }
+
+    public ValetStubServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return The Valet root of the stub, e.g. http://127.0.0.1:54321/valet
+     */
+    public String getBaseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + CONTEXT_PATH;
+    }
+
+    /**
+     * @param publishedMonth The last month with observations.
+     */
+    public void setPublishedMonth(YearMonth publishedMonth) {
+        this.publishedMonth = publishedMonth;
+        responses.clear();
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public long getGroupDetailsRequests() {
+        return groupDetailsRequests.sum();
+    }
+
+    public long getGroupObservationRequests() {
+        return groupObservationRequests.sum();
+    }
+
+    public long getSeriesObservationRequests() {
+        return seriesObservationRequests.sum();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.sum();
+    }
+
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    public long getRequests() {
+        return groupDetailsRequests.sum() + groupObservationRequests.sum()
+                + seriesObservationRequests.sum() + otherRequests.sum();
+    }
+
+    public void resetCounts() {
+        groupDetailsRequests.reset();
+        groupObservationRequests.reset();
+        seriesObservationRequests.reset();
+        injectedErrors.reset();
+        otherRequests.reset();
+        notModified.reset();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            URI uri = exchange.getRequestURI();
+            String path = uri.getPath().substring(CONTEXT_PATH.length());
+            String query = uri.getRawQuery();
+
+            byte[] body = null;
+            if (path.startsWith(GROUP_DETAILS_PATH)) {
+                groupDetailsRequests.increment();
+                body = responses.computeIfAbsent(GROUP_DETAILS_PATH, key -> bytes(ValetFixtures.groupDetails()));
+            } else if (path.startsWith(GROUP_OBSERVATIONS_PATH)) {
+                groupObservationRequests.increment();
+                body = monthly(ValetFixtures.CODES, query);
+            } else if (path.startsWith(SERIES_OBSERVATIONS_PATH)) {
+                seriesObservationRequests.increment();
+                body = series(seriesName(path), query);
+            } else {
+                otherRequests.increment();
+            }
+
+            long latency = latencyMillis;
+            if (latency > 0) {
+                TimeUnit.MILLISECONDS.sleep(latency);
+            }
+
+            if (body != null && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                injectedErrors.increment();
+                respond(exchange, 503, bytes("{\"message\":\"Service Unavailable\"}"));
+            } else if (body == null) {
+                respond(exchange, 404, bytes("{\"message\":\"Series not found\"}"));
+            } else {
+                respondWithBody(exchange, body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] series(String seriesName, String query) {
+        if (seriesName.equals("FXUSDCAD")) {
+            LocalDate end = YearMonth.now().minusMonths(1).atEndOfMonth();
+            return responses.computeIfAbsent(seriesName + "?" + end,
+                    key -> bytes(ValetFixtures.dailyObservations(ValetFixtures.DAILY_START, end)));
+        }
+        if (seriesName.startsWith("FXM") && seriesName.endsWith("CAD") && seriesName.length() == 9) {
+            String code = seriesName.substring(3, 6);
+            if (Arrays.asList(ValetFixtures.CODES).contains(code)) {
+                return monthly(new String[]{code}, query);
+            }
+        }
+        return null;
+    }
+
+    private byte[] monthly(String[] codes, String query) {
+        YearMonth from = YearMonth.from(parameter(query, "start_date", ValetFixtures.HISTORY_START.atDay(1)));
+        YearMonth published = publishedMonth;
+        YearMonth end = YearMonth.from(parameter(query, "end_date", published.atDay(1)));
+        YearMonth to = end.isAfter(published) ? published : end;
+        String key = String.join(",", codes) + "?" + from + ":" + to;
+        return responses.computeIfAbsent(key, k -> bytes(ValetFixtures.monthlyObservations(codes, from, to)));
+    }
+
+    /**
+     * @return The series of /observations/{series} or /observations/{series}/json.
+     */
+    private static String seriesName(String path) {
+        String name = path.substring(SERIES_OBSERVATIONS_PATH.length());
+        int slash = name.indexOf('/');
+        return slash < 0 ? name : name.substring(0, slash);
+    }
+
+    private static LocalDate parameter(String query, String name, LocalDate defaultValue) {
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    return LocalDate.parse(parameter.substring(name.length() + 1));
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    private void respondWithBody(HttpExchange exchange, byte[] body) throws IOException {
+        String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.increment();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            respond(exchange, 200, gzip(body));
+        } else {
+            respond(exchange, 200, body);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,16 +0,0 @@
-package com.ibm.openpages.beans;
-
-/**
- *
- */
-public class FXUSDCAD {
-    private String v;
-
-    public String getV() {
-        return v;
-    }
-
-    public void setV(String v) {
-        this.v = v;
-    }
-}
@@ -0,0 +1,233 @@
+package com.ibm.openpages.beans;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+
+/**
+ * Immutable time series of exchange rates for one currency.
+ * <p>
+ * Dates are packed into sorted int keys, either epoch months (months since 1970-01, for the
+ * FXM monthly series) or epoch days (for daily series such as FXUSDCAD), with the rates in a
+ * parallel double array. Lookups are binary searches on the key array, so queries run in
+ * O(log n) without boxing and a full history takes a few KB.
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class RateSeries {
+
+    public static final RateSeries EMPTY = new RateSeries(new int[0], new double[0]);
+
+    private final int[] keys;
+    private final double[] values;
+
+    private RateSeries(int[] keys, double[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    public static int epochMonth(YearMonth month) {
+        return epochMonth(month.getYear(), month.getMonthValue());
+    }
+
+    public static int epochMonth(int year, int month) {
+        return (year - 1970) * 12 + month - 1;
+    }
+
+    public static YearMonth toYearMonth(int epochMonth) {
+        return YearMonth.of(1970 + Math.floorDiv(epochMonth, 12), Math.floorMod(epochMonth, 12) + 1);
+    }
+
+    public static int epochDay(LocalDate date) {
+        return (int) date.toEpochDay();
+    }
+
+    public static LocalDate toLocalDate(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    public int keyAt(int index) {
+        return keys[index];
+    }
+
+    public double valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return The first key of the series, or Integer.MIN_VALUE if it is empty.
+     */
+    public int firstKey() {
+        return keys.length == 0 ? Integer.MIN_VALUE : keys[0];
+    }
+
+    /**
+     * @return The last key of the series, or Integer.MIN_VALUE if it is empty.
+     */
+    public int lastKey() {
+        return keys.length == 0 ? Integer.MIN_VALUE : keys[keys.length - 1];
+    }
+
+    /**
+     * Point query.
+     *
+     * @param key The epoch month or epoch day.
+     * @return The rate stored for the key, or NaN if there is none.
+     */
+    public double get(int key) {
+        int index = Arrays.binarySearch(keys, key);
+        return index >= 0 ? values[index] : Double.NaN;
+    }
+
+    /**
+     * "Latest before date" query.
+     *
+     * @param key The epoch month or epoch day.
+     * @return The rate of the greatest key lower than or equal to the given key, or NaN if there is none.
+     */
+    public double getLatestAtOrBefore(int key) {
+        int index = indexAtOrBefore(key);
+        return index >= 0 ? values[index] : Double.NaN;
+    }
+
+    /**
+     * @return The index of the greatest key lower than or equal to the given key, or -1 if there is none.
+     */
+    public int indexAtOrBefore(int key) {
+        int index = Arrays.binarySearch(keys, key);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * @return The index of the smallest key greater than or equal to the given key, size() if there is none.
+     */
+    public int indexAtOrAfter(int key) {
+        int index = Arrays.binarySearch(keys, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Range query, the matching entries are the indexes [indexAtOrAfter(fromKey), returned index).
+     *
+     * @param fromKey First key of the range, inclusive.
+     * @param toKey   Last key of the range, inclusive.
+     * @return The number of entries in the range.
+     */
+    public int countInRange(int fromKey, int toKey) {
+        if (toKey < fromKey) {
+            return 0;
+        }
+        return indexAtOrBefore(toKey) + 1 - indexAtOrAfter(fromKey);
+    }
+
+    /**
+     * Returns a new series holding the entries of both series. When a key exists in both,
+     * the value of the other series wins.
+     *
+     * @param other The series to merge in.
+     * @return The merged series.
+     */
+    public RateSeries merge(RateSeries other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        Builder builder = new Builder(size() + other.size());
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                builder.add(keys[i], values[i]);
+                i++;
+            } else {
+                if (i < keys.length && keys[i] == other.keys[j]) {
+                    i++;
+                }
+                builder.add(other.keys[j], other.values[j]);
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects entries in any order and builds a sorted series. A key added twice keeps the
+     * last value.
+     */
+    public static final class Builder {
+        private int[] keys;
+        private double[] values;
+        private int size;
+        private boolean sorted = true;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int capacity) {
+            keys = new int[Math.max(capacity, 1)];
+            values = new double[keys.length];
+        }
+
+        public Builder add(int key, double value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            if (size > 0 && key <= keys[size - 1]) {
+                sorted = false;
+            }
+            keys[size] = key;
+            values[size] = value;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public RateSeries build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            if (sorted) {
+                return new RateSeries(Arrays.copyOf(keys, size), Arrays.copyOf(values, size));
+            }
+
+            // Stable sort of the indexes by key, so the last value added wins on duplicates
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(keys[a], keys[b]));
+
+            int[] sortedKeys = new int[size];
+            double[] sortedValues = new double[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int index = order[i];
+                if (count > 0 && sortedKeys[count - 1] == keys[index]) {
+                    sortedValues[count - 1] = values[index];
+                } else {
+                    sortedKeys[count] = keys[index];
+                    sortedValues[count] = values[index];
+                    count++;
+                }
+            }
+            return new RateSeries(Arrays.copyOf(sortedKeys, count), Arrays.copyOf(sortedValues, count));
+        }
+    }
+}
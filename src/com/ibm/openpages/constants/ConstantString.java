@@ -9,8 +9,38 @@ public class ConstantString {
     public static final String SLASH_CAD = "/CAD";
 
     public static final String USD = "USD";
-    public static final String FIRST_URL_PART = "https://www.bankofcanada.ca/valet/observations/FXM";
+
+    /**
+     * System property overriding the Valet API root, e.g. to point the trigger to a local stub.
+     */
+    public static final String VALET_BASE_URL_PROPERTY = "currency.valet.baseUrl";
+    public static final String DEFAULT_VALET_BASE_URL = "https://www.bankofcanada.ca/valet";
+    public static final String VALET_BASE_URL = System.getProperty(VALET_BASE_URL_PROPERTY, DEFAULT_VALET_BASE_URL);
+
+    public static final String FIRST_URL_PART = VALET_BASE_URL + "/observations/FXM";
     public static final String SECOND_URL_PART = "CAD";
 
-    public static final String API_URL = "https://www.bankofcanada.ca/valet/groups/FX_RATES_MONTHLY";
+    public static final String API_URL = VALET_BASE_URL + "/groups/FX_RATES_MONTHLY";
+
+    public static final String GROUP_OBSERVATIONS_URL = VALET_BASE_URL + "/observations/group/FX_RATES_MONTHLY/json";
+    public static final String SERIES_PREFIX = "FXM";
+
+    public static final String SNAPSHOT_PATH_PROPERTY = "currency.snapshot.path";
+    public static final String SNAPSHOT_FILE_NAME = "currency_op_rates.bin";
+
+    /**
+     * System property naming a directory shared by the OpenPages nodes, so only one node refreshes the rates.
+     */
+    public static final String CLUSTER_DIR_PROPERTY = "currency.cluster.dir";
+
+    /**
+     * System property disabling the background warm-up started when the trigger is loaded, when set to false.
+     */
+    public static final String WARMUP_PROPERTY = "currency.warmup";
+
+    /**
+     * System property requesting a backfill of the rates when the trigger is loaded, a month range
+     * such as 2021-01:2023-05, or a single month.
+     */
+    public static final String BACKFILL_PROPERTY = "currency.backfill";
 }
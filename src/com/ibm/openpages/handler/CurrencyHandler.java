@@ -1,145 +1,90 @@
 package com.ibm.openpages.handler;
 
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ibm.openpages.api.Context;
-import com.ibm.openpages.api.configuration.ICurrency;
 import com.ibm.openpages.api.service.IConfigurationService;
-import com.ibm.openpages.api.service.IServiceFactory;
 import com.ibm.openpages.api.service.ServiceFactory;
 import com.ibm.openpages.api.trigger.events.CreateResourceEvent;
 import com.ibm.openpages.api.trigger.ext.DefaultEventHandler;
-import com.ibm.openpages.util.Util;
+import com.ibm.openpages.util.TriggerMetrics;
 
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.time.LocalDate;
-import java.util.Date;
-import java.util.List;
-
-import static com.ibm.openpages.constants.ConstantString.*;
-import static com.ibm.openpages.util.ApiClient.getApiData;
-
 /**
  * <p>
  * This class handles the currency trigger event in OpenPages.
- * It retrieves currency data from an API and updates the exchange rates configuration in OpenPages accordingly.
+ * It signals the {@link RateRefreshService}, which retrieves currency data from an API and updates the
+ * exchange rates configuration in OpenPages accordingly in the background.
+ * A burst of events is coalesced by the service, which runs a single refresh per month; the
+ * rates it prepares are written by the first event that follows, with the configuration service
+ * of that event.
  * The trigger is executed when a new resource is created.
  * </p>
+ * <p>
+ * The events are not dispatched in micro-batches to a worker pool: the configuration service
+ * belongs to the context of the event and must not be used once the event is over, so no worker
+ * can handle an event after its save. A burst does not need it either, its events share the
+ * single refresh of the month, and once the month is applied an event only reads a volatile field.
+ * </p>
  * Author: dannymunoz
  * Date: 2023-06-01
  * Project: currency_op
  */
 public class CurrencyHandler extends DefaultEventHandler {
 
+    static {
+        // Prefetches the rates and warms the trigger up before the first event
+        CurrencyWarmup.start();
+    }
+
     @Override
     public boolean handleEvent(CreateResourceEvent event) {
 
+        IConfigurationService configurationService;
         try {
 
             // Get the context from the event
             Context context = event.getContext();
 
-            // Get the service factory based on the context
-            IServiceFactory serviceFactory = ServiceFactory.getServiceFactory(context);
-
-            // Create the configuration service using the service factory
-            IConfigurationService configurationService = serviceFactory.createConfigurationService();
-
-            // Get the list of currencies from the configuration service
-            // The boolean parameter 'true' indicates to include only active currencies
-            List<ICurrency> currencies = serviceFactory.createConfigurationService().getCurrencies(true);
-
-            System.out.println("----------------- currency trigger started -----------------");
-
-            JsonNode jsonObservationNames = getApiData(API_URL);
-
-            /**
-             * <p>
-             *     Calculating previous month
-             * </p>
-             */
-            LocalDate date = LocalDate.now();
-            String monthValue = "0" + (date.getMonthValue() - 1);
-            String yearObs = String.valueOf(date.getYear());
-
-
-            int i = 0;
-            for (ICurrency iCurrency : currencies) {
-
-                /**
-                 * Getting ISO-CODE Monthly average rate in case that is equals to CAD
-                 * the APIUrl will use USD instead of CAD because "FXMCADCAD" return null
-                 * in JsonNodeMonthlyRates
-                 */
-                if (iCurrency.getCurrencyCode().toString().equals("CAD")) {
-
-                    JsonNode jsonNodeMonthlyRates =
-                            getApiData(
-                                    FIRST_URL_PART
-                                            + USD +
-                                            SECOND_URL_PART);
-
-                    // Getting double averageMonthlyRates - previous month
-                    double averageMonthlyRates =
-                            Util.getAverageMonthlyRates(USD,
-                                    yearObs,
-                                    monthValue, jsonNodeMonthlyRates);
-
-                    // 1USD/CAD
-                    // Converting USD to CAD into CAD to USD
-                    double result = 1 / averageMonthlyRates;
-
-                    // Rounding to 4 decimal
-                    BigDecimal decimalResult = new BigDecimal(result);
-                    decimalResult = decimalResult.setScale(4, RoundingMode.HALF_UP);
-
-                    double formattedResult = decimalResult.doubleValue();
-
-                    // Calling the method to update rates in OP
-                    Util.updateOneRate(configurationService, iCurrency.getCurrencyCode()
-                            .toString(), formattedResult, new Date());
-                }
-
-                if (!iCurrency.getCurrencyCode().toString().equals(SECOND_URL_PART)) {
-                    JsonNode jsonNodeMonthlyRates =
-                            getApiData(
-                                    FIRST_URL_PART
-                                            + iCurrency.getCurrencyCode().toString() +
-                                            SECOND_URL_PART);
-
-                    // Getting rate as a double
-                    double averageMonthlyRates =
-                            Util.getAverageMonthlyRates(iCurrency.getCurrencyCode()
-                                            .toString(),
-                                    yearObs,
-                                    monthValue, jsonNodeMonthlyRates);
-
-                    System.out.println("NO CAD ------ " + iCurrency.getCurrencyCode().toString());
+            // Create the configuration service once for the event, everything below uses it
+            configurationService = ServiceFactory.getServiceFactory(context).createConfigurationService();
 
+        } catch (Exception e) {
+            TriggerMetrics.getInstance().failures.increment();
+            System.out.println("Exception: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
 
-                    double result = 1 / averageMonthlyRates;
+        return handle(configurationService);
+    }
 
-                    BigDecimal decimalResult = new BigDecimal(result);
-                    decimalResult = decimalResult.setScale(4, RoundingMode.HALF_UP);
+    /**
+     * Handles an event with the configuration service of its context, so the handler can be
+     * driven without an OpenPages event, e.g. by a load test.
+     *
+     * @param configurationService The configuration service created for the event.
+     * @return True if the event was handled.
+     */
+    public boolean handle(IConfigurationService configurationService) {
+
+        TriggerMetrics metrics = TriggerMetrics.getInstance();
+        long start = System.nanoTime();
+        try {
 
-                    double formattedResult = decimalResult.doubleValue();
+            // The rates are computed and applied in the background, the save is not blocked
+            RateRefreshService.getInstance().signal(configurationService);
 
-                    System.out.println("RATE TO ENTER: " + formattedResult);
+            // A requested backfill of past months is computed and written the same way
+            RateBackfill.signal(configurationService);
 
-                    // Calling the method to update rates in OP
-                    if (!iCurrency.getCurrencyCode().toString().equals("USD")) {
-                        Util.updateOneRate(configurationService, iCurrency.getCurrencyCode()
-                                .toString(), formattedResult, new Date());
-                    }
-                }
-            }
             return true;
 
         } catch (Exception e) {
+            metrics.failures.increment();
             System.out.println("Exception: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            metrics.handler.recordSince(start);
         }
 
         return false;
@@ -0,0 +1,168 @@
+package com.ibm.openpages.handler;
+
+import com.ibm.openpages.beans.RateSeries;
+import com.ibm.openpages.util.ObservationParser;
+import com.ibm.openpages.util.RateBatch;
+import com.ibm.openpages.util.RateSnapshot;
+import com.ibm.openpages.util.RateStore;
+import com.ibm.openpages.util.TriggerLifecycle;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.ibm.openpages.constants.ConstantString.*;
+
+/**
+ * <p>
+ * Warms the currency trigger up in the background after the deployment of the JAR, so the
+ * first LossEvent does not pay for the rate fetch, the HTTPS connection, or the class loading
+ * of the JSON reader and of the rate computation.
+ * </p>
+ * <p>
+ * It is started when {@link CurrencyHandler} is loaded, or explicitly with {@link #start()}, and
+ * runs once on a low priority daemon thread:
+ * </p>
+ * <ol>
+ * <li>loads the rate snapshot and gives its currencies to {@link RateRefreshService}, which has
+ * no active currency until the first trigger;</li>
+ * <li>starts the refresh of the target month, which opens the connection to the Bank of Canada
+ * and prefetches the missing rates, under the lease of the month in a cluster;</li>
+ * <li>parses a sample Valet response and computes the rates of the target month from the stored
+ * averages, or from the sample when nothing is stored, {@link #WARMUP_ITERATIONS} times.</li>
+ * </ol>
+ * <p>
+ * The warm-up writes nothing in OpenPages: the first trigger writes the prefetched rates, or
+ * refreshes them again if its active currencies differ from the ones of the snapshot. When no
+ * snapshot exists yet, e.g. on the first deployment, nothing is prefetched. Setting the
+ * currency.warmup system property to false disables the warm-up.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class CurrencyWarmup {
+
+    /**
+     * Runs of the parse and compute paths, enough to load and link every class they use and to
+     * get them past the interpreter; the traffic of the triggers does the rest.
+     */
+    public static final int WARMUP_ITERATIONS = 2_000;
+
+    private static final String SAMPLE_OBSERVATIONS = "{\"observations\":["
+            + "{\"d\":\"2023-04-01\",\"FXMUSDCAD\":{\"v\":\"1.3533\"},\"FXMEURCAD\":{\"v\":\"1.4819\"}},"
+            + "{\"d\":\"2023-05-01\",\"FXMUSDCAD\":{\"v\":\"1.3566\"},\"FXMEURCAD\":{\"v\":\"1.4684\"}}]}";
+
+    private static final AtomicReference<CompletableFuture<Void>> STARTED = new AtomicReference<>();
+
+    private CurrencyWarmup() {
+    }
+
+    /**
+     * Starts the warm-up in the background unless it already ran or is disabled.
+     *
+     * @return A future completed once the warm-up is over.
+     */
+    public static CompletableFuture<Void> start() {
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        if (!STARTED.compareAndSet(null, created)) {
+            return STARTED.get();
+        }
+        if ("false".equalsIgnoreCase(System.getProperty(WARMUP_PROPERTY))) {
+            created.complete(null);
+            return created;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                run();
+            } catch (Exception e) {
+                System.out.println("Currency warm-up failed: " + e.getMessage());
+            } finally {
+                created.complete(null);
+            }
+        }, "currency-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        TriggerLifecycle.register("warm-up", thread::interrupt);
+        return created;
+    }
+
+    private static void run() throws Exception {
+        long start = System.nanoTime();
+
+        RateSnapshot.ensureLoaded();
+
+        YearMonth month = RateRefreshService.getTargetMonth();
+        RateStore store = RateStore.getInstance();
+        Map<String, Double> storedRates = new HashMap<>();
+        for (String isoCode : store.getCodes()) {
+            double rate = store.getRate(isoCode, month);
+            if (rate > 0) {
+                storedRates.put(isoCode, rate);
+            }
+        }
+
+        // Prefetch, the snapshot giving the currencies until a trigger signals the active ones
+        boolean prefetching = prefetch(store, month);
+
+        warmUpComputation(storedRates);
+
+        System.out.println("Currency trigger warmed up in " + (System.nanoTime() - start) / 1_000_000 + " ms, "
+                + storedRates.size() + " stored rates for " + month
+                + (prefetching ? ", rates prefetched in the background" : ", no currency to prefetch"));
+    }
+
+    /**
+     * @return True if the refresh of the month is started, false if the snapshot has no currency.
+     */
+    private static boolean prefetch(RateStore store, YearMonth month) {
+        List<String> isoCodes = new ArrayList<>(store.getCodes());
+        if (isoCodes.isEmpty()) {
+            return false;
+        }
+        // CAD is read from the USD series
+        if (isoCodes.contains(USD) && !isoCodes.contains(SECOND_URL_PART)) {
+            isoCodes.add(SECOND_URL_PART);
+        }
+
+        RateRefreshService service = RateRefreshService.getInstance();
+        service.seedActiveCodes(isoCodes);
+        service.refresh(month);
+        return true;
+    }
+
+    private static void warmUpComputation(Map<String, Double> storedRates) throws Exception {
+        byte[] sample = SAMPLE_OBSERVATIONS.getBytes(StandardCharsets.UTF_8);
+        Map<String, Double> monthlyRates = new HashMap<>();
+        for (int i = 0; i < WARMUP_ITERATIONS && !Thread.currentThread().isInterrupted(); i++) {
+            monthlyRates.clear();
+            for (Map.Entry<String, RateSeries> series : ObservationParser
+                    .readGroupSeries(new ByteArrayInputStream(sample)).entrySet()) {
+                monthlyRates.put(series.getKey(), series.getValue().valueAt(series.getValue().size() - 1));
+            }
+        }
+
+        // Only currencies that have a rate, so the warm-up does not count skipped currencies
+        if (!storedRates.isEmpty()) {
+            monthlyRates.clear();
+            monthlyRates.putAll(storedRates);
+        }
+        List<String> isoCodes = new ArrayList<>(monthlyRates.keySet());
+        if (monthlyRates.containsKey(USD)) {
+            isoCodes.add(SECOND_URL_PART);
+        }
+
+        RateBatch ratesToWrite = new RateBatch(isoCodes.size());
+        for (int i = 0; i < WARMUP_ITERATIONS && !Thread.currentThread().isInterrupted(); i++) {
+            ratesToWrite.clear();
+            RateRefreshService.computeRates(isoCodes, monthlyRates, ratesToWrite);
+        }
+    }
+}
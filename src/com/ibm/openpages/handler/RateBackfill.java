@@ -0,0 +1,488 @@
+package com.ibm.openpages.handler;
+
+import com.ibm.openpages.api.service.IConfigurationService;
+import com.ibm.openpages.beans.RateSeries;
+import com.ibm.openpages.util.ConfigurationServiceCache;
+import com.ibm.openpages.util.ConfigurationServiceCache.CurrencySnapshot;
+import com.ibm.openpages.util.ExchangeRateBatchUpdater;
+import com.ibm.openpages.util.ExchangeRateBatchUpdater.BatchResult;
+import com.ibm.openpages.util.FileLeaseStore;
+import com.ibm.openpages.util.LeaseStore;
+import com.ibm.openpages.util.RateBatch;
+import com.ibm.openpages.util.TriggerLifecycle;
+import com.ibm.openpages.util.TriggerMetrics;
+import com.ibm.openpages.util.Util;
+
+import java.io.IOException;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.ibm.openpages.constants.ConstantString.BACKFILL_PROPERTY;
+
+/**
+ * <p>
+ * Rebuilds the exchange rates of a range of months, e.g. after an outage or when a currency
+ * is activated.
+ * </p>
+ * <p>
+ * A backfill is requested with {@link #request(YearMonth, YearMonth, Collection)}, or with the
+ * currency.backfill system property read when the trigger is loaded, as from[:to][:ISO,ISO]
+ * (e.g. 2021-01:2023-05, or 2021-01:2023-05:EUR,JPY for two currencies only). Like the monthly
+ * refresh, it runs with the configuration service of the triggers:
+ * </p>
+ * <ol>
+ * <li>the next trigger gives the active currencies, every series is fetched once for the whole
+ * range in the background (see {@link Util#getMonthlyRateSeries(YearMonth, YearMonth, Collection)})
+ * and the months are computed with the same conversion as the monthly refresh;</li>
+ * <li>the following triggers write the months oldest first through {@link ExchangeRateBatchUpdater},
+ * effective from the first day of the following month as the trigger would have done. A rate
+ * equal to the one of the previous month is skipped, and the target month of the monthly refresh
+ * is written last as the current rate, only if it differs from it.</li>
+ * </ol>
+ * <p>
+ * A trigger writes whole months up to {@link #MAX_RATES_PER_TRIGGER} rates, so a range of years
+ * is spread over the saves of many users instead of blocking one of them.
+ * </p>
+ * <p>
+ * In a cluster, the node taking the lease of the range keeps it until the last month is written,
+ * then marks it completed, so the other nodes and the later restarts with the same property skip
+ * it. A node finding the lease taken checks again after {@link #LEASE_RETRY_SECONDS}.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class RateBackfill {
+
+    /**
+     * Rates written by one trigger at most, the last month being written whole.
+     */
+    public static final int MAX_RATES_PER_TRIGGER = 100;
+
+    /**
+     * Delay before a node checks again the lease of a range written by another node.
+     */
+    public static final long LEASE_RETRY_SECONDS = 60L;
+
+    private static final AtomicReference<Backfill> PENDING = new AtomicReference<>();
+
+    /**
+     * The thread computing the pending backfill, if any.
+     */
+    private static final AtomicReference<Thread> WORKER = new AtomicReference<>();
+
+    private static final AtomicBoolean STOP_REGISTERED = new AtomicBoolean();
+
+    static {
+        String property = System.getProperty(BACKFILL_PROPERTY);
+        if (property != null && !property.trim().isEmpty()) {
+            try {
+                requestFromProperty(property.trim());
+            } catch (DateTimeParseException | IllegalArgumentException e) {
+                System.out.println("Ignoring " + BACKFILL_PROPERTY + "=" + property + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Counts of a backfill.
+     */
+    public static final class BackfillResult {
+        private final BatchResult writes = new BatchResult();
+        private int months;
+        private int incompleteMonths;
+
+        public BatchResult getWrites() {
+            return writes;
+        }
+
+        public int getMonths() {
+            return months;
+        }
+
+        /**
+         * @return The months for which at least one currency had no rate.
+         */
+        public int getIncompleteMonths() {
+            return incompleteMonths;
+        }
+
+        @Override
+        public String toString() {
+            return "months=" + months + ", incompleteMonths=" + incompleteMonths + ", " + writes;
+        }
+    }
+
+    /**
+     * A requested range, computed in the background and then written by the triggers.
+     */
+    private static final class Backfill {
+        private final YearMonth from;
+        private final YearMonth to;
+
+        /**
+         * The requested ISO codes, empty for every active currency.
+         */
+        private final List<String> isoCodes;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        /**
+         * Held by the trigger writing the next months.
+         */
+        private final AtomicBoolean writing = new AtomicBoolean();
+
+        /**
+         * The computed months oldest first and their rates, null until computed.
+         */
+        private volatile YearMonth[] months;
+        private volatile RateBatch[] rates;
+
+        /**
+         * The next month to write, advanced by the trigger holding {@link #writing}.
+         */
+        private volatile int cursor;
+
+        /**
+         * Written by the trigger holding {@link #writing}.
+         */
+        private final BackfillResult result = new BackfillResult();
+        private LeaseStore.Lease lease;
+        private volatile long retryAtMillis;
+
+        private Backfill(YearMonth from, YearMonth to, List<String> isoCodes) {
+            this.from = from;
+            this.to = to;
+            this.isoCodes = isoCodes;
+        }
+
+        private String getLeaseName() {
+            return "currency-backfill-" + from + "-" + to + (isoCodes.isEmpty() ? "" : "-" + String.join("-", isoCodes));
+        }
+
+        @Override
+        public String toString() {
+            return from + " - " + to + (isoCodes.isEmpty() ? "" : " " + isoCodes);
+        }
+    }
+
+    private RateBackfill() {
+    }
+
+    /**
+     * Requests a backfill of every active currency, run by the next triggers.
+     *
+     * @param from The first month of the monthly averages.
+     * @param to   The last month of the monthly averages, included.
+     * @see #request(YearMonth, YearMonth, Collection)
+     */
+    public static void request(YearMonth from, YearMonth to) {
+        request(from, to, null);
+    }
+
+    /**
+     * Requests a backfill, run by the next triggers. Replaces the pending backfill unless some of
+     * its months are written already, a backfill then being finished first.
+     *
+     * @param from     The first month of the monthly averages.
+     * @param to       The last month of the monthly averages, included.
+     * @param isoCodes The ISO codes of the currencies to backfill, null or empty for every active
+     *                 currency. Codes of inactive currencies are ignored.
+     */
+    public static void request(YearMonth from, YearMonth to, Collection<String> isoCodes) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("Backfill range ends before it starts: " + from + " - " + to);
+        }
+        TreeSet<String> codes = new TreeSet<>();
+        if (isoCodes != null) {
+            for (String isoCode : isoCodes) {
+                if (!isoCode.trim().isEmpty()) {
+                    codes.add(isoCode.trim().toUpperCase());
+                }
+            }
+        }
+        Backfill backfill = new Backfill(from, to, Collections.unmodifiableList(new ArrayList<>(codes)));
+
+        Backfill pending = PENDING.get();
+        if (pending != null && pending.cursor > 0) {
+            System.out.println("Exchange rate backfill " + pending + " is being written, " + backfill + " ignored");
+            return;
+        }
+        PENDING.set(backfill);
+        System.out.println("Exchange rate backfill " + backfill + " requested");
+    }
+
+    /**
+     * Parses from[:to][:ISO,ISO], the range ending with its first month if to is omitted.
+     */
+    private static void requestFromProperty(String property) {
+        String[] parts = property.split(":");
+        YearMonth from = YearMonth.parse(parts[0].trim());
+        YearMonth to = from;
+        List<String> isoCodes = null;
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (i == parts.length - 1 && !part.isEmpty() && Character.isLetter(part.charAt(0))) {
+                isoCodes = new ArrayList<>();
+                Collections.addAll(isoCodes, part.split(","));
+            } else if (i == 1) {
+                to = YearMonth.parse(part);
+            } else {
+                throw new IllegalArgumentException("expected from[:to][:ISO,ISO]");
+            }
+        }
+        request(from, to, isoCodes);
+    }
+
+    /**
+     * Cheap check for the hot path of the triggers.
+     *
+     * @return True if a backfill is requested and not written yet.
+     */
+    public static boolean isPending() {
+        return PENDING.get() != null;
+    }
+
+    /**
+     * Advances the pending backfill, if any, with the configuration service of the calling trigger:
+     * starts the background computation, or writes the next computed months on the calling thread.
+     *
+     * @param configurationService The configuration service of the trigger event.
+     * @return The counts of the whole backfill if its last month was written by this call, null otherwise.
+     */
+    public static BackfillResult signal(IConfigurationService configurationService) {
+        Backfill backfill = PENDING.get();
+        if (backfill == null) {
+            return null;
+        }
+
+        if (backfill.months == null) {
+            if (!TriggerLifecycle.isShutdown() && backfill.started.compareAndSet(false, true)) {
+                List<String> isoCodes = getCodes(configurationService, backfill);
+                if (isoCodes.isEmpty()) {
+                    PENDING.compareAndSet(backfill, null);
+                    System.out.println("Exchange rate backfill " + backfill + " has no active currency, dropped");
+                    return null;
+                }
+                start(backfill, isoCodes);
+            }
+            return null;
+        }
+
+        if (System.currentTimeMillis() < backfill.retryAtMillis || !backfill.writing.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            return write(configurationService, backfill);
+        } finally {
+            backfill.writing.set(false);
+        }
+    }
+
+    private static void start(Backfill backfill, List<String> isoCodes) {
+        if (STOP_REGISTERED.compareAndSet(false, true)) {
+            TriggerLifecycle.register("backfill", RateBackfill::stop);
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                compute(backfill, isoCodes);
+            } catch (Exception e) {
+                TriggerMetrics.getInstance().failures.increment();
+                System.out.println("Exchange rate backfill " + backfill + " failed, retried by the next trigger: "
+                        + e.getMessage());
+                backfill.started.set(false);
+            } finally {
+                WORKER.compareAndSet(Thread.currentThread(), null);
+            }
+        }, "currency-backfill");
+        thread.setDaemon(true);
+        WORKER.set(thread);
+        thread.start();
+    }
+
+    /**
+     * Stops the computation and releases the lease of the pending backfill, which is dropped.
+     */
+    private static void stop() {
+        Thread thread = WORKER.getAndSet(null);
+        if (thread != null) {
+            thread.interrupt();
+        }
+        Backfill backfill = PENDING.getAndSet(null);
+        if (backfill != null && backfill.writing.compareAndSet(false, true)) {
+            releaseLease(backfill);
+        }
+    }
+
+    /**
+     * Fetches every series once for the range and computes the rates of each month.
+     */
+    private static void compute(Backfill backfill, List<String> isoCodes) {
+        List<String> sourceCodes = RateRefreshService.getSourceCodes(isoCodes);
+        Map<String, RateSeries> series = Util.getMonthlyRateSeries(backfill.from, backfill.to, sourceCodes);
+        if (series.isEmpty()) {
+            throw new IllegalStateException("no series could be fetched");
+        }
+
+        int count = (int) ChronoUnit.MONTHS.between(backfill.from, backfill.to) + 1;
+        YearMonth[] months = new YearMonth[count];
+        RateBatch[] rates = new RateBatch[count];
+        int incompleteMonths = 0;
+        Map<String, Double> monthlyRates = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            YearMonth month = backfill.from.plusMonths(i);
+            int key = RateSeries.epochMonth(month);
+            monthlyRates.clear();
+            for (Map.Entry<String, RateSeries> currencySeries : series.entrySet()) {
+                double rate = currencySeries.getValue().get(key);
+                if (rate > 0) {
+                    monthlyRates.put(currencySeries.getKey(), rate);
+                }
+            }
+
+            RateBatch ratesToWrite = new RateBatch(isoCodes.size());
+            if (!RateRefreshService.computeRates(isoCodes, monthlyRates, ratesToWrite)) {
+                incompleteMonths++;
+            }
+            months[i] = month;
+            rates[i] = ratesToWrite;
+        }
+
+        backfill.result.incompleteMonths = incompleteMonths;
+        backfill.rates = rates;
+        backfill.months = months;
+        System.out.println("Exchange rate backfill " + backfill + " computed, written by the next triggers");
+    }
+
+    /**
+     * Writes the next months, once for the whole cluster when the nodes share a lease store.
+     */
+    private static BackfillResult write(IConfigurationService configurationService, Backfill backfill) {
+        LeaseStore leases = FileLeaseStore.fromSystemProperty();
+        if (leases != null && backfill.lease == null) {
+            String name = backfill.getLeaseName();
+            try {
+                if (leases.isCompleted(name)) {
+                    finish(backfill, "written by another node");
+                    return null;
+                }
+                backfill.lease = leases.tryAcquire(name);
+                if (backfill.lease == null) {
+                    // Being written by another node, which marks it completed once done
+                    backfill.retryAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LEASE_RETRY_SECONDS);
+                    return null;
+                }
+                if (leases.isCompleted(name)) {
+                    releaseLease(backfill);
+                    finish(backfill, "written by another node");
+                    return null;
+                }
+            } catch (IOException e) {
+                System.out.println("Lease store unavailable, backfilling locally: " + e.getMessage());
+            }
+        }
+
+        if (!writeMonths(configurationService, backfill)) {
+            if (PENDING.get() != backfill) {
+                // Stopped while writing
+                releaseLease(backfill);
+            }
+            return null;
+        }
+
+        if (backfill.lease != null && backfill.result.getWrites().getFailed() == 0) {
+            try {
+                leases.markCompleted(backfill.getLeaseName());
+            } catch (IOException e) {
+                System.out.println("Could not mark backfill " + backfill + " completed: " + e.getMessage());
+            }
+        }
+        releaseLease(backfill);
+        finish(backfill, backfill.result.toString());
+        return backfill.result;
+    }
+
+    /**
+     * Writes whole months from the cursor until {@link #MAX_RATES_PER_TRIGGER} rates are written.
+     *
+     * @return True if the last month was written.
+     */
+    private static boolean writeMonths(IConfigurationService configurationService, Backfill backfill) {
+        YearMonth targetMonth = RateRefreshService.getTargetMonth();
+        YearMonth[] months = backfill.months;
+        RateBatch[] rates = backfill.rates;
+        BackfillResult result = backfill.result;
+
+        int written = 0;
+        while (backfill.cursor < months.length && written < MAX_RATES_PER_TRIGGER) {
+            int i = backfill.cursor;
+            if (months[i].equals(targetMonth)) {
+                // The current rates, as the monthly refresh writes them
+                result.writes.add(ExchangeRateBatchUpdater.apply(configurationService, rates[i], new Date()));
+            } else {
+                result.writes.add(ExchangeRateBatchUpdater.applyEffective(configurationService, rates[i],
+                        getEffectiveDate(months[i]), i > 0 ? rates[i - 1] : null));
+            }
+            written += rates[i].size();
+            result.months++;
+            backfill.cursor++;
+        }
+        return backfill.cursor == months.length;
+    }
+
+    private static void finish(Backfill backfill, String outcome) {
+        PENDING.compareAndSet(backfill, null);
+        System.out.println("Exchange rate backfill " + backfill + ": " + outcome);
+    }
+
+    private static void releaseLease(Backfill backfill) {
+        if (backfill.lease == null) {
+            return;
+        }
+        try {
+            backfill.lease.close();
+        } catch (IOException e) {
+            System.out.println("Could not release the lease of backfill " + backfill + ": " + e.getMessage());
+        }
+        backfill.lease = null;
+    }
+
+    /**
+     * @return The requested codes that are active, or every active code if none was requested.
+     */
+    private static List<String> getCodes(IConfigurationService configurationService, Backfill backfill) {
+        CurrencySnapshot currencies = ConfigurationServiceCache.getActiveCurrencies(configurationService);
+        List<String> isoCodes = new ArrayList<>(currencies.size());
+        for (int i = 0; i < currencies.size(); i++) {
+            String isoCode = currencies.getCode(i);
+            if (backfill.isoCodes.isEmpty() || backfill.isoCodes.contains(isoCode)) {
+                isoCodes.add(isoCode);
+            }
+        }
+        if (isoCodes.size() < backfill.isoCodes.size()) {
+            List<String> inactive = new ArrayList<>(backfill.isoCodes);
+            inactive.removeAll(isoCodes);
+            System.out.println("Exchange rate backfill " + backfill + " ignores inactive currencies " + inactive);
+        }
+        return isoCodes;
+    }
+
+    /**
+     * @return The first day of the month following the averages, when the trigger applies them.
+     */
+    static Date getEffectiveDate(YearMonth month) {
+        return Date.from(month.plusMonths(1).atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
@@ -0,0 +1,664 @@
+package com.ibm.openpages.handler;
+
+import com.ibm.openpages.api.service.IConfigurationService;
+import com.ibm.openpages.util.ConfigurationServiceCache;
+import com.ibm.openpages.util.ConfigurationServiceCache.CurrencySnapshot;
+import com.ibm.openpages.util.CrossRateTable;
+import com.ibm.openpages.util.ExchangeRateBatchUpdater;
+import com.ibm.openpages.util.ExchangeRateBatchUpdater.BatchResult;
+import com.ibm.openpages.util.FileLeaseStore;
+import com.ibm.openpages.util.LeaseStore;
+import com.ibm.openpages.util.RateBatch;
+import com.ibm.openpages.util.RateConverter;
+import com.ibm.openpages.util.RateSnapshot;
+import com.ibm.openpages.util.RateStore;
+import com.ibm.openpages.util.TriggerLifecycle;
+import com.ibm.openpages.util.TriggerMetrics;
+import com.ibm.openpages.util.Util;
+
+import java.io.IOException;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.ibm.openpages.constants.ConstantString.*;
+
+/**
+ * <p>
+ * Background service computing the monthly exchange rates and applying them in OpenPages.
+ * </p>
+ * <p>
+ * The currency trigger only signals this service, so the network calls no longer block the
+ * LossEvent save. The rates are fetched and computed on a single daemon thread: a refresh is
+ * started when a trigger signals it, and a periodic check re-runs it until the previous month
+ * has been applied, which covers the first business day of the month when the Bank of Canada
+ * publishes the new averages, and retries after a failure.
+ * </p>
+ * <p>
+ * No configuration service is kept: it belongs to the context of the trigger event and is not
+ * usable once the event is over. The background thread only keeps the ISO codes of the active
+ * currencies and the prepared rates; the next trigger signaling the service writes them in one
+ * batch with its own configuration service, on its own thread, and the following triggers skip
+ * the work once the month is applied.
+ * </p>
+ * <p>
+ * So the writes are not fully asynchronous: the OpenPages API offers no configuration service
+ * outside of an event, and one created for a finished event must not be used. Once a month, the
+ * first trigger after a refresh pays for writing the rates that changed, typically a few dozen
+ * setExchangeRate calls, on the save thread of its user. Every other trigger returns after a
+ * volatile read, and the network calls never run on a save thread.
+ * </p>
+ * <p>
+ * When the nodes of a cluster share a {@link LeaseStore} (see {@link FileLeaseStore} and the
+ * currency.cluster.dir system property), the rates of a month are fetched by one node at a time
+ * under its lease, the others reading them from the shared rate snapshot instead of calling the
+ * API, and they are written by the node that takes the lease first. It marks the month completed;
+ * the other nodes then skip the writes, the exchange rates being stored in the database shared by
+ * every node. A month marked completed is only trusted once the shared snapshot holds its rate
+ * for every active currency; otherwise the node fetches and writes it again under the lease.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class RateRefreshService {
+
+    /**
+     * Delay between two checks of the applied month.
+     */
+    public static final long CHECK_PERIOD_MINUTES = 60L;
+
+    /**
+     * Delay before retrying a refresh that could not get every rate.
+     */
+    public static final long RETRY_DELAY_MINUTES = 15L;
+
+    /**
+     * Time a node waits for the node holding the lease of a month to release it.
+     */
+    public static final long LEADER_WAIT_SECONDS = 30L;
+
+    private static final RateRefreshService INSTANCE = new RateRefreshService();
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Refreshes currently running or queued, one per month. Concurrent callers for the same
+     * month share the same future instead of starting their own refresh.
+     */
+    private final ConcurrentHashMap<YearMonth, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+
+    /**
+     * ISO codes of the active currencies, as read by the most recent trigger.
+     */
+    private volatile List<String> activeCodes;
+
+    /**
+     * Rates of the last refresh, waiting for a trigger to write them.
+     */
+    private volatile PreparedRates prepared;
+
+    /**
+     * Coordination with the other nodes, null when the node is alone.
+     */
+    private volatile LeaseStore leaseStore = FileLeaseStore.fromSystemProperty();
+
+    /**
+     * Last target month whose rates were fully applied.
+     */
+    private volatile YearMonth appliedMonth;
+
+    /**
+     * Time until which the applied month stays the target month, 0 until a month is applied.
+     */
+    private volatile long appliedUntilMillis;
+
+    /**
+     * Rates computed for a month by the background thread.
+     */
+    private static final class PreparedRates {
+        private final YearMonth month;
+
+        /**
+         * The active codes the rates were computed for.
+         */
+        private final List<String> codes;
+        private final RateBatch rates;
+        private final boolean complete;
+
+        /**
+         * Set when the month was marked completed in the cluster while the shared snapshot missed
+         * some of its rates, so the marker is not trusted and the rates are written again.
+         */
+        private boolean staleCompletion;
+
+        /**
+         * Set by the trigger writing the rates, so they are written once.
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private PreparedRates(YearMonth month, List<String> codes, RateBatch rates, boolean complete) {
+            this.month = month;
+            this.codes = codes;
+            this.rates = rates;
+            this.complete = complete;
+        }
+    }
+
+    private RateRefreshService() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "currency-rate-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> refresh(getTargetMonth()),
+                CHECK_PERIOD_MINUTES, CHECK_PERIOD_MINUTES, TimeUnit.MINUTES);
+        TriggerLifecycle.register("rate refresh", this::shutdown);
+    }
+
+    /**
+     * @return The service shared by every trigger running in this JVM.
+     */
+    public static RateRefreshService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return The month whose rates are applied on the current date, the previous one.
+     */
+    public static YearMonth getTargetMonth() {
+        return YearMonth.now().minusMonths(1);
+    }
+
+    /**
+     * <p>
+     * Signals that the rates may need a refresh. Must be called by the trigger owning the
+     * configuration service, which is only used during this call.
+     * </p>
+     * <p>
+     * The active currencies are read for the background refresh. If the rates of the month are
+     * already prepared, the first trigger to come writes them before returning; otherwise a
+     * refresh is started, unless a retry is already scheduled, and the call returns immediately.
+     * </p>
+     *
+     * @param configurationService The configuration service of the trigger event.
+     */
+    public void signal(IConfigurationService configurationService) {
+        YearMonth month = getTargetMonth();
+        if (month.equals(appliedMonth)) {
+            return;
+        }
+
+        CurrencySnapshot currencies = ConfigurationServiceCache.getActiveCurrencies(configurationService);
+        List<String> codes = activeCodes;
+        if (codes == null || !isSameCodes(codes, currencies)) {
+            codes = new ArrayList<>(currencies.size());
+            for (int i = 0; i < currencies.size(); i++) {
+                codes.add(currencies.getCode(i));
+            }
+            activeCodes = Collections.unmodifiableList(codes);
+        }
+
+        PreparedRates rates = prepared;
+        if (rates == null || !rates.month.equals(month) || rates.codes != codes) {
+            // Not prepared yet, or for other currencies, e.g. the ones seeded by the warm-up
+            refresh(month);
+        } else if (rates.claimed.compareAndSet(false, true)) {
+            apply(configurationService, rates);
+        } else if (!retryScheduled.get()) {
+            // Written but not every rate could be applied, and no retry is pending
+            refresh(month);
+        }
+    }
+
+    /**
+     * Gives the currencies to refresh before any trigger signaled the active ones, so the rates
+     * can be prefetched, e.g. by {@link CurrencyWarmup}. Ignored once a trigger signaled them;
+     * the first trigger refreshes the rates again if its active currencies differ.
+     *
+     * @param isoCodes The ISO codes of the currencies, e.g. the ones of the rate snapshot.
+     */
+    public void seedActiveCodes(Collection<String> isoCodes) {
+        if (activeCodes == null && !isoCodes.isEmpty()) {
+            activeCodes = Collections.unmodifiableList(new ArrayList<>(isoCodes));
+        }
+    }
+
+    public boolean isApplied(YearMonth month) {
+        return month.equals(appliedMonth);
+    }
+
+    /**
+     * Cheap check for the hot path of the triggers: one clock read, no allocation.
+     *
+     * @return True if the rates of the current target month are applied.
+     */
+    public boolean isTargetMonthApplied() {
+        return System.currentTimeMillis() < appliedUntilMillis;
+    }
+
+    /**
+     * Replaces the coordination with the other nodes of the cluster.
+     *
+     * @param leaseStore The store of the leases, or null to refresh without coordination.
+     */
+    public void setLeaseStore(LeaseStore leaseStore) {
+        this.leaseStore = leaseStore;
+    }
+
+    /**
+     * Stops the background thread when the trigger JAR is replaced, see {@link TriggerLifecycle}.
+     * Signals are ignored afterwards.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * <p>
+     * Fetches and computes the rates of the given month in the background, for the next trigger
+     * to write them.
+     * </p>
+     * <p>
+     * Only the first caller for a month starts a refresh, callers arriving while it is queued or
+     * running get the same future. Refreshes of different months do not wait on each other.
+     * Nothing is fetched until a trigger has signaled the active currencies.
+     * </p>
+     *
+     * @param month The month of the average rates.
+     * @return A future completed with true once every active currency got a rate.
+     */
+    public CompletableFuture<Boolean> refresh(YearMonth month) {
+        if (month.equals(appliedMonth)) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        CompletableFuture<Boolean> created = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(month, created);
+        if (running != null) {
+            return running;
+        }
+
+        try {
+            scheduler.execute(() -> run(month, created));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(month, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    private void run(YearMonth month, CompletableFuture<Boolean> future) {
+        boolean complete = false;
+        try {
+            List<String> codes = activeCodes;
+            if (month.equals(appliedMonth)) {
+                complete = true;
+            } else if (codes != null) {
+                LeaseStore leases = leaseStore;
+                PreparedRates rates = leases != null ? prepareInCluster(codes, month, leases)
+                        : prepareRates(codes, month);
+                if (rates != null) {
+                    prepared = rates;
+                    complete = rates.complete;
+                }
+            }
+        } catch (Exception e) {
+            TriggerMetrics.getInstance().failures.increment();
+            System.out.println("Exception: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            inFlight.remove(month, future);
+        }
+
+        future.complete(complete);
+
+        if (!complete && activeCodes != null && retryScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(() -> {
+                    retryScheduled.set(false);
+                    refresh(getTargetMonth());
+                }, RETRY_DELAY_MINUTES, TimeUnit.MINUTES);
+            } catch (RejectedExecutionException e) {
+                retryScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Prepares the rates of a month once for the whole cluster. The node holding the lease of the
+     * month fetches the rates and saves them in the shared snapshot, the nodes waiting for the
+     * lease then read them from the snapshot. A month marked completed whose rates are missing
+     * from the snapshot is fetched again under the lease. Falls back to a local fetch if the lease
+     * store can not be reached.
+     *
+     * @return The rates, or null if the lease could not be taken in time.
+     */
+    private static PreparedRates prepareInCluster(List<String> activeCodes, YearMonth month, LeaseStore leases) {
+        String name = getLeaseName(month);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(LEADER_WAIT_SECONDS);
+            while (true) {
+                try (LeaseStore.Lease lease = leases.tryAcquire(name)) {
+                    boolean completed = leases.isCompleted(name);
+                    if (completed && isStored(activeCodes, month)) {
+                        // Nothing is fetched, so nothing is saved without the lease
+                        return prepareRates(activeCodes, month);
+                    }
+                    if (lease != null) {
+                        // Rates already fetched by other nodes are not fetched again
+                        RateSnapshot.reload();
+                        PreparedRates rates = prepareRates(activeCodes, month);
+                        if (completed) {
+                            System.out.println("Exchange rates of " + month
+                                    + " marked completed but missing from the snapshot, applying locally");
+                            rates.staleCompletion = true;
+                        }
+                        return rates;
+                    }
+                }
+                if (System.nanoTime() >= deadline) {
+                    return null;
+                }
+                TimeUnit.MILLISECONDS.sleep(500L);
+            }
+        } catch (IOException e) {
+            System.out.println("Lease store unavailable, refreshing locally: " + e.getMessage());
+            return prepareRates(activeCodes, month);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the averages of a month, publishes its cross rates and computes the rates to write.
+     */
+    private static PreparedRates prepareRates(List<String> activeCodes, YearMonth month) {
+        List<String> isoCodes = getSourceCodes(activeCodes);
+
+        // Getting every monthly average rate with a single group request
+        Set<String> staleCodes = new HashSet<>();
+        Set<String> unpublishedCodes = new HashSet<>();
+        Map<String, Double> monthlyRates = Util.getMonthlyRates(month, isoCodes, staleCodes, unpublishedCodes);
+
+        // Cross rates for the other triggers, published even if some currencies are missing
+        if (!monthlyRates.isEmpty()) {
+            CrossRateTable.publish(CrossRateTable.build(month, monthlyRates));
+        }
+
+        RateBatch ratesToWrite = new RateBatch(activeCodes.size());
+        boolean complete = computeRates(activeCodes, monthlyRates, ratesToWrite);
+
+        // A currency without a Valet series would keep the month from ever being applied
+        if (!unpublishedCodes.isEmpty()) {
+            System.out.println("Exchange rates of " + unpublishedCodes + " are not published by the Bank of Canada,"
+                    + " " + month + " is applied without them");
+            if (!complete) {
+                complete = isResolved(activeCodes, monthlyRates, unpublishedCodes);
+            }
+        }
+
+        // Last known rates keep OpenPages consistent, but the month is refreshed again later
+        return new PreparedRates(month, activeCodes, ratesToWrite, complete && staleCodes.isEmpty());
+    }
+
+    /**
+     * @return True if every active currency has a rate or is not published at all.
+     */
+    private static boolean isResolved(List<String> activeCodes, Map<String, Double> monthlyRates,
+                                      Set<String> unpublishedCodes) {
+        for (String isoCode : activeCodes) {
+            String sourceCode = isoCode.equals(SECOND_URL_PART) ? USD : isoCode;
+            if (!isUsable(getAverage(monthlyRates, sourceCode)) && !unpublishedCodes.contains(sourceCode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes prepared rates with the configuration service of the calling trigger, and marks the
+     * month applied once every rate of the target month is written.
+     */
+    private void apply(IConfigurationService configurationService, PreparedRates rates) {
+        try {
+            LeaseStore leases = leaseStore;
+            boolean written = leases != null ? applyInCluster(configurationService, rates, leases)
+                    : writeRates(configurationService, rates.rates);
+            if (written && rates.complete && rates.month.equals(getTargetMonth())) {
+                appliedMonth = rates.month;
+                // The month stays the target until the end of the following month
+                appliedUntilMillis = rates.month.plusMonths(2).atDay(1).atStartOfDay(ZoneId.systemDefault())
+                        .toInstant().toEpochMilli();
+                System.out.println("Exchange rates applied for " + rates.month);
+            }
+        } catch (Exception e) {
+            TriggerMetrics.getInstance().failures.increment();
+            System.out.println("Exception: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the rates of a month once for the whole cluster, as the node holding its lease, or
+     * skips them when another node already wrote them. Falls back to a local write if the lease
+     * store can not be reached.
+     *
+     * @return True if the rates are written, by this node or another one.
+     */
+    private static boolean applyInCluster(IConfigurationService configurationService, PreparedRates rates,
+                                          LeaseStore leases) {
+        String name = getLeaseName(rates.month);
+        try {
+            if (!rates.staleCompletion && leases.isCompleted(name)) {
+                return true;
+            }
+            try (LeaseStore.Lease lease = leases.tryAcquire(name)) {
+                if (lease == null) {
+                    // Another node is busy with the month, the next trigger tries again
+                    rates.claimed.set(false);
+                    return false;
+                }
+                if (!rates.staleCompletion && leases.isCompleted(name)) {
+                    return true;
+                }
+                boolean written = writeRates(configurationService, rates.rates);
+                if (written && rates.complete) {
+                    leases.markCompleted(name);
+                }
+                return written;
+            }
+        } catch (IOException e) {
+            System.out.println("Lease store unavailable, applying locally: " + e.getMessage());
+            return writeRates(configurationService, rates.rates);
+        }
+    }
+
+    /**
+     * Reads the shared snapshot again and checks that it holds the average of the month for every
+     * active currency.
+     */
+    private static boolean isStored(List<String> activeCodes, YearMonth month) {
+        RateSnapshot.reload();
+        RateStore store = RateStore.getInstance();
+        for (String isoCode : getSourceCodes(activeCodes)) {
+            if (!(store.getRate(isoCode, month) > 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the rates in one batch through {@link ExchangeRateBatchUpdater}, which skips the
+     * currencies whose rounded rate is already set.
+     *
+     * @return True if every rate is written or already set, false if a write failed, so the month
+     * is not marked applied and is written again later.
+     */
+    private static boolean writeRates(IConfigurationService configurationService, RateBatch ratesToWrite) {
+        BatchResult result = ExchangeRateBatchUpdater.apply(configurationService, ratesToWrite, new Date());
+        if (result.getFailed() > 0) {
+            System.out.println("Exchange rates could not be written for " + result.getFailedCodes());
+            return false;
+        }
+        return true;
+    }
+
+    private static String getLeaseName(YearMonth month) {
+        return "currency-refresh-" + month;
+    }
+
+    /**
+     * @return True if the codes are the ones of the active currencies, in any order, e.g. the codes
+     * seeded from the snapshot.
+     */
+    private static boolean isSameCodes(List<String> codes, CurrencySnapshot currencies) {
+        if (codes.size() != currencies.size()) {
+            return false;
+        }
+        for (int i = 0; i < currencies.size(); i++) {
+            if (!codes.contains(currencies.getCode(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Computes the rates of every active currency for the given month and updates them in OpenPages,
+     * on the calling thread.
+     * </p>
+     * <p>
+     * The rates are written in one batch through {@link ExchangeRateBatchUpdater}, which skips
+     * the currencies whose rounded rate is already set, and the {@link CrossRateTable} of the
+     * month is published.
+     * </p>
+     *
+     * @param configurationService The configuration service used to update the exchange rates.
+     * @param month                The month of the average rates.
+     * @return True if every active currency got a rate and every write succeeded.
+     */
+    public static boolean refreshRates(IConfigurationService configurationService, YearMonth month) {
+
+        // Get the active currencies, with their ISO codes already as strings
+        CurrencySnapshot currencies = ConfigurationServiceCache.getActiveCurrencies(configurationService);
+
+        List<String> activeCodes = new ArrayList<>(currencies.size());
+        for (int i = 0; i < currencies.size(); i++) {
+            activeCodes.add(currencies.getCode(i));
+        }
+
+        PreparedRates rates = prepareRates(activeCodes, month);
+
+        // Calling the batch updater to write the rates that changed in OP
+        return writeRates(configurationService, rates.rates) && rates.complete;
+    }
+
+    /**
+     * Returns the series to read for the given currencies, CAD being read from the USD series.
+     *
+     * @param isoCodes The ISO codes of the currencies to update.
+     * @return The ISO codes of the FXM{ISO}CAD series to read.
+     */
+    public static List<String> getSourceCodes(Collection<String> isoCodes) {
+        List<String> sourceCodes = new ArrayList<>(isoCodes.size());
+        for (String isoCode : isoCodes) {
+            sourceCodes.add(isoCode.equals(SECOND_URL_PART) ? USD : isoCode);
+        }
+        return sourceCodes;
+    }
+
+    /**
+     * <p>
+     * Converts the monthly averages against CAD into the rates written in OpenPages.
+     * </p>
+     * <p>
+     * Every rate is inverted and rounded to 4 decimals with {@link RateConverter#invert(double)},
+     * CAD being the inverse of the USD average.
+     * USD is not written, and a currency without a positive average, or whose inverse would not be
+     * finite, is skipped, so Infinity and NaN are never written.
+     * </p>
+     *
+     * @param isoCodes     The ISO codes of the currencies to update.
+     * @param monthlyRates The monthly averages against CAD, keyed by ISO code of the series.
+     * @param ratesToWrite Receives the rates to write, in the order of the ISO codes.
+     * @return True if every currency got a rate.
+     */
+    public static boolean computeRates(Collection<String> isoCodes, Map<String, Double> monthlyRates,
+                                       RateBatch ratesToWrite) {
+        boolean complete = true;
+        for (String isoCode : isoCodes) {
+
+            /**
+             * Getting ISO-CODE Monthly average rate in case that is equals to CAD
+             * the APIUrl will use USD instead of CAD because "FXMCADCAD" return null
+             * in JsonNodeMonthlyRates
+             */
+            if (isoCode.equals(SECOND_URL_PART)) {
+
+                // Getting double averageMonthlyRates - previous month
+                double averageMonthlyRates = getAverage(monthlyRates, USD);
+
+                // Never write 1/0.0 when the rate could not be obtained
+                if (!isUsable(averageMonthlyRates)) {
+                    TriggerMetrics.getInstance().skippedCurrencies.increment();
+                    complete = false;
+                    continue;
+                }
+
+                // 1USD/CAD
+                // Converting USD to CAD into CAD to USD, rounded to 4 decimal
+                ratesToWrite.add(isoCode, RateConverter.invert(averageMonthlyRates));
+
+            } else {
+                // Getting rate as a double, cached per currency and month
+                double averageMonthlyRates = getAverage(monthlyRates, isoCode);
+
+                if (!isUsable(averageMonthlyRates)) {
+                    TriggerMetrics.getInstance().skippedCurrencies.increment();
+                    complete = false;
+                    continue;
+                }
+
+                if (!isoCode.equals(USD)) {
+                    ratesToWrite.add(isoCode, RateConverter.invert(averageMonthlyRates));
+                }
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * @return The average of the series, 0 if it is missing, without boxing a default value.
+     */
+    private static double getAverage(Map<String, Double> monthlyRates, String isoCode) {
+        Double average = monthlyRates.get(isoCode);
+        return average != null ? average : 0.0;
+    }
+
+    /**
+     * @return True if the average is positive and its inverse finite, NaN being rejected.
+     */
+    private static boolean isUsable(double averageMonthlyRate) {
+        return averageMonthlyRate > 0 && !Double.isInfinite(averageMonthlyRate)
+                && !Double.isInfinite(1 / averageMonthlyRate);
+    }
+}
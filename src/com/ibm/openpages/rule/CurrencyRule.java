@@ -5,10 +5,18 @@ import com.ibm.openpages.api.resource.IGRCObject;
 import com.ibm.openpages.api.resource.IResource;
 import com.ibm.openpages.api.trigger.events.CreateResourceEvent;
 import com.ibm.openpages.api.trigger.ext.DefaultRule;
+import com.ibm.openpages.handler.RateBackfill;
+import com.ibm.openpages.handler.RateRefreshService;
+import com.ibm.openpages.util.TriggerMetrics;
 
 /**
  * This Rule Class determines if the created resource is a LossEvent.
  * It extends the DefaultRule class.
+ * <p>
+ * Once the rates of the current month are applied, the rule is not applicable until the next
+ * month, so the LossEvents skip the handler, unless a {@link RateBackfill} is pending. The
+ * LossEvent type definition is remembered and compared by identity before its name.
+ * </p>
  *
  * @author dannymunoz
  * @date 2023-06-01
@@ -16,29 +24,57 @@ import com.ibm.openpages.api.trigger.ext.DefaultRule;
  */
 public class CurrencyRule extends DefaultRule {
 
+    private static final String LOSS_EVENT = "LossEvent";
+
+    /**
+     * Type definition of the last LossEvent seen, null until then.
+     */
+    private static volatile ITypeDefinition lossEventType;
+
     @Override
     public boolean isApplicable(CreateResourceEvent event) {
+        return isApplicable(event.getResource());
+    }
+
+    /**
+     * Same as {@link #isApplicable(CreateResourceEvent)} for the resource of the event, so the
+     * rule can be driven without an OpenPages event, e.g. by a load test.
+     *
+     * @param resource The created resource.
+     * @return True if the resource is a LossEvent and the rates may need to be applied.
+     */
+    public boolean isApplicable(IResource resource) {
         try {
-            IResource resource = event.getResource();
+            // Nothing to do until the next month once the rates are applied, unless a backfill is requested
+            if (RateRefreshService.getInstance().isTargetMonthApplied() && !RateBackfill.isPending()) {
+                return false;
+            }
 
             // Checking if the resource obtained is an object and not a folder
             if (!resource.isFolder()) {
 
                 IGRCObject object = (IGRCObject) resource;
 
-                ITypeDefinition systemName = object.getType();
-                String iTypeDefinition = systemName.getName();
+                ITypeDefinition type = object.getType();
 
                 // Checking if it matches with given name
-                if (iTypeDefinition.equals("LossEvent")) {
-
+                if (type == null) {
+                    return false;
+                }
+                if (type == lossEventType) {
+                    return true;
+                }
+                if (LOSS_EVENT.equals(type.getName())) {
+                    lossEventType = type;
                     return true;
-
                 }
             }
 
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            // A failure of the rule must not abort the save of the resource
+            TriggerMetrics.getInstance().failures.increment();
+            System.out.println("Exception: " + e.getMessage());
+            e.printStackTrace();
         }
         return false;
     }
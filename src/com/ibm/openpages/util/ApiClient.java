@@ -2,21 +2,102 @@ package com.ibm.openpages.util;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static com.ibm.openpages.constants.ConstantString.API_URL;
 
 /**
  * <p>
  * This class is retrieving data from Bank of canada API - Currency rates
  * </p>
+ * <p>
+ * Connections are kept alive and reused by the JDK: a response body is always read to its end
+ * and its stream closed, the connection is only disconnected when a request fails or is
+ * cancelled. Responses are requested gzip-compressed, and the parsed responses carrying an ETag
+ * or a Last-Modified date are cached so the next request for the same URL is conditional and an
+ * unchanged series comes back as an empty 304, served from the cache without parsing.
+ * </p>
+ * <p>
+ * Every request goes through a {@link CircuitBreaker}: after consecutive network or server
+ * errors the requests fail fast with a {@link CircuitBreaker.CircuitOpenException} until a
+ * background probe of the provider succeeds.
+ * </p>
  *
  * @author dannymunoz on 2023-06-01
  * @project currency_op
  */
 public class ApiClient {
 
+    public static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    public static final int READ_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Overall deadline used when several series are fetched together.
+     */
+    public static final long FETCH_ALL_DEADLINE_MILLIS = 8000L;
+
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+    private static final int MAX_QUEUED_REQUESTS = 64;
+
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+    /**
+     * ObjectMapper and ObjectReader are thread-safe once configured, one instance is shared by
+     * every request. Reading from the byte stream lets Jackson decode the UTF-8 body itself.
+     */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectReader OBJECT_READER = OBJECT_MAPPER.reader();
+
+    private static final ResponseParser<JsonNode> JSON_TREE = new ResponseParser<JsonNode>() {
+        @Override
+        public JsonNode parse(InputStream in) throws IOException {
+            return OBJECT_READER.readTree(in);
+        }
+    };
+
+    private static final HttpResponseCache RESPONSE_CACHE = new HttpResponseCache();
+
+    private static final CircuitBreaker CIRCUIT_BREAKER = new CircuitBreaker("valet-api",
+            CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_MILLIS, ApiClient::probe);
+
+    static {
+        TriggerLifecycle.register("API requests", EXECUTOR::shutdownNow);
+        TriggerLifecycle.register("circuit breaker", CIRCUIT_BREAKER::shutdown);
+    }
+
+    /**
+     * Reads a response body straight from the connection input stream.
+     * <p>
+     * A parsed response may be cached and returned again by the following requests for the same
+     * URL with the same parser, so it must not be modified by the caller.
+     * </p>
+     *
+     * @param <T> The type of the parsed response.
+     */
+    public interface ResponseParser<T> {
+        T parse(InputStream in) throws IOException;
+    }
+
     /**
      * <p>
      * This method will connect with the API
@@ -27,27 +108,343 @@ public class ApiClient {
      * @return
      */
     public static JsonNode getApiData(String apiUrl) {
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode jsonNode = null;
+        return getApiData(apiUrl, JSON_TREE);
+    }
+
+    /**
+     * <p>
+     * This method will connect with the API and hand the response stream to the given parser,
+     * so the body can be read incrementally without buffering it first.
+     * </p>
+     *
+     * @param apiUrl String URL
+     * @param parser Parser reading the response body
+     * @return The parsed response, or null if the request failed.
+     */
+    public static <T> T getApiData(String apiUrl, ResponseParser<T> parser) {
         try {
-            URL url = new URL(apiUrl);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
+            return fetch(apiUrl, parser, new AtomicReference<HttpURLConnection>());
+        } catch (CircuitBreaker.CircuitOpenException e) {
+            System.out.println(e.getMessage() + ": " + apiUrl);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Asynchronous version of {@link #getApiData(String, ResponseParser)}.
+     *
+     * @param apiUrl String URL
+     * @param parser Parser reading the response body
+     * @return A future completed with the parsed response, or exceptionally if the request failed.
+     */
+    public static <T> CompletableFuture<T> getApiDataAsync(final String apiUrl, final ResponseParser<T> parser) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicReference<HttpURLConnection> connectionRef = new AtomicReference<>();
+
+        final Future<?> task;
+        try {
+            task = EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.complete(fetch(apiUrl, parser, connectionRef));
+                    } catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        result.whenComplete((response, error) -> {
+            if (error instanceof CancellationException) {
+                task.cancel(true);
+                HttpURLConnection connection = connectionRef.get();
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * <p>
+     * Fetches several URLs concurrently and waits for them up to an overall deadline.
+     * </p>
+     * <p>
+     * Every request also has its own connect and read timeouts. Requests still running when
+     * the deadline expires are cancelled and are simply missing from the result, so the caller
+     * waits at most for the slowest request that fits in the deadline instead of the sum of all.
+     * </p>
+     *
+     * @param apiUrls        URLs to fetch, keyed by a caller-defined name (e.g. the ISO code).
+     * @param parser         Parser reading every response body.
+     * @param deadlineMillis Overall time budget for every request.
+     * @return The parsed response of every request that completed in time, by key.
+     */
+    public static <T> Map<String, T> getAllApiData(Map<String, String> apiUrls, ResponseParser<T> parser,
+                                                   long deadlineMillis) {
+        Map<String, CompletableFuture<T>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, String> apiUrl : apiUrls.entrySet()) {
+            futures.put(apiUrl.getKey(), getApiDataAsync(apiUrl.getValue(), parser));
+        }
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        Map<String, T> results = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<T>> future : futures.entrySet()) {
+            try {
+                long remaining = Math.max(0L, deadline - System.nanoTime());
+                T response = future.getValue().get(remaining, TimeUnit.NANOSECONDS);
+                if (response != null) {
+                    results.put(future.getKey(), response);
+                }
+            } catch (TimeoutException e) {
+                System.out.println("Request for " + future.getKey() + " cancelled after deadline");
+                future.getValue().cancel(true);
+            } catch (ExecutionException e) {
+                System.out.println("Request for " + future.getKey() + " failed: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.getValue().cancel(true);
             }
-            reader.close();
+        }
+        return results;
+    }
 
-            jsonNode = objectMapper.readTree(response.toString());
+    /**
+     * @return The circuit breaker guarding the requests to the provider.
+     */
+    public static CircuitBreaker getCircuitBreaker() {
+        return CIRCUIT_BREAKER;
+    }
 
-            connection.disconnect();
+    /**
+     * Forgets every cached response, the next requests are unconditional.
+     */
+    public static void clearResponseCache() {
+        RESPONSE_CACHE.clear();
+    }
+
+    private static <T> T fetch(String apiUrl, ResponseParser<T> parser,
+                               AtomicReference<HttpURLConnection> connectionRef) throws IOException {
+        CIRCUIT_BREAKER.checkAllowed();
+        try {
+            T result = request(apiUrl, parser, connectionRef);
+            CIRCUIT_BREAKER.onSuccess();
+            return result;
+        } catch (ClientErrorException e) {
+            // The provider answered, e.g. a 404 for a series it does not publish
+            CIRCUIT_BREAKER.onSuccess();
+            throw e;
         } catch (IOException e) {
-            e.printStackTrace();
+            CIRCUIT_BREAKER.onFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * Background probe of the circuit breaker, requesting the small group details document.
+     */
+    private static boolean probe() {
+        try {
+            request(API_URL, in -> Boolean.TRUE, new AtomicReference<HttpURLConnection>());
+            return true;
+        } catch (ClientErrorException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static <T> T request(String apiUrl, ResponseParser<T> parser,
+                                 AtomicReference<HttpURLConnection> connectionRef) throws IOException {
+        URL url = new URL(apiUrl);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connectionRef.set(connection);
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        // Only a response read by the same parser can be served on a 304
+        HttpResponseCache.CachedResponse cached = RESPONSE_CACHE.get(apiUrl);
+        T cachedValue = cached != null ? cached.getValue(parser) : null;
+        if (cachedValue != null) {
+            if (cached.getEtag() != null) {
+                connection.setRequestProperty("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() > 0) {
+                connection.setIfModifiedSince(cached.getLastModified());
+            }
+        }
+
+        TriggerMetrics metrics = TriggerMetrics.getInstance();
+        long start = System.nanoTime();
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                drainAndClose(connection.getInputStream());
+                if (cachedValue == null) {
+                    // Not a conditional request, there is no body to parse
+                    throw new IOException("HTTP 304 without a cached response for " + apiUrl);
+                }
+                metrics.notModified.increment();
+                return cachedValue;
+            }
+            if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // Reading the error body lets the connection be reused
+                drainAndClose(connection.getErrorStream());
+                if (status < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                    throw new ClientErrorException(status, apiUrl);
+                }
+                throw new IOException("HTTP " + status + " for " + apiUrl);
+            }
+
+            try (InputStream body = openBody(connection)) {
+                CountingInputStream in = new CountingInputStream(body);
+                T result = parse(parser, in, metrics);
+                drain(in);
+
+                // The parsed response is kept to be served again on a 304
+                String etag = connection.getHeaderField("ETag");
+                long lastModified = connection.getLastModified();
+                if (result != null && (etag != null || lastModified > 0)) {
+                    RESPONSE_CACHE.put(apiUrl,
+                            new HttpResponseCache.CachedResponse(etag, lastModified, parser, result, in.getCount()));
+                } else {
+                    RESPONSE_CACHE.remove(apiUrl);
+                }
+                return result;
+            }
+        } catch (ClientErrorException e) {
+            // The error body was read, the connection can be reused
+            metrics.failures.increment();
+            throw e;
+        } catch (IOException e) {
+            metrics.failures.increment();
+            // A connection left in an unknown state must not go back to the keep-alive pool
+            connection.disconnect();
+            throw e;
+        } finally {
+            metrics.http.recordSince(start);
+        }
+    }
+
+    private static <T> T parse(ResponseParser<T> parser, InputStream in, TriggerMetrics metrics) throws IOException {
+        long parseStart = System.nanoTime();
+        T result = parser.parse(in);
+        metrics.parse.recordSince(parseStart);
+        return result;
+    }
+
+    private static InputStream openBody(HttpURLConnection connection) throws IOException {
+        InputStream in = new BufferedInputStream(connection.getInputStream());
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            return new BufferedInputStream(new GZIPInputStream(in));
+        }
+        return in;
+    }
+
+
+    /**
+     * Reads what the parser left unread, a connection is only reused once its body was consumed.
+     */
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // Discarding the rest of the body
+        }
+    }
+
+    private static void drainAndClose(InputStream in) throws IOException {
+        if (in != null) {
+            try {
+                drain(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * A 4xx answer, the request was wrong but the provider is available.
+     */
+    private static final class ClientErrorException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private ClientErrorException(int status, String apiUrl) {
+            super("HTTP " + status + " for " + apiUrl);
+        }
+    }
+
+    /**
+     * Counts the bytes read from a body, to weigh the cached responses. Closing it is left to the
+     * caller, so the body can still be drained after a parser closed its input.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
         }
-        return jsonNode;
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+            // The body is closed by the request
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "currency-api-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS),
+                threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 }
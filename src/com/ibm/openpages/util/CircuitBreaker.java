@@ -0,0 +1,147 @@
+package com.ibm.openpages.util;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * <p>
+ * Circuit breaker protecting the calls to the rate provider.
+ * </p>
+ * <p>
+ * The breaker starts CLOSED and lets every request through. After {@link #getFailureThreshold()}
+ * consecutive failures it turns OPEN: requests fail fast with a {@link CircuitOpenException}
+ * instead of waiting for their timeouts, and the callers serve their last known rates. While
+ * OPEN, a single probe request is run in the background every {@link #getOpenMillis()} ms,
+ * the breaker being HALF_OPEN during the probe. A successful probe closes the breaker, a failed
+ * one keeps it open until the next probe. Callers never wait for a probe.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_OPEN_MILLIS = 60_000L;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Thrown instead of sending a request while the breaker is not closed.
+     */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String name) {
+            super("Circuit " + name + " is open, request not sent");
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final BooleanSupplier probe;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    /**
+     * @param name             Name used in the logs and the probe thread.
+     * @param failureThreshold Consecutive failures opening the breaker.
+     * @param openMillis       Delay before each background probe while the breaker is open.
+     * @param probe            Request run in the background, returning true if the provider answered.
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, BooleanSupplier probe) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.probe = probe;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Fails fast if the breaker does not let requests through.
+     *
+     * @throws CircuitOpenException If the breaker is open or half-open.
+     */
+    public void checkAllowed() throws CircuitOpenException {
+        if (state.get() != State.CLOSED) {
+            TriggerMetrics.getInstance().shortCircuited.increment();
+            throw new CircuitOpenException(name);
+        }
+    }
+
+    /**
+     * Records a request answered by the provider.
+     */
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Records a request that failed because of the provider, opening the breaker at the threshold.
+     */
+    public void onFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold
+                && state.compareAndSet(State.CLOSED, State.OPEN)) {
+            System.out.println("Circuit " + name + " opened after " + failureThreshold + " consecutive failures");
+            scheduleProbe();
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    /**
+     * Stops the probe thread, the breaker then stays in its current state.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void scheduleProbe() {
+        scheduler.schedule(this::runProbe, openMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void runProbe() {
+        if (!state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            return;
+        }
+
+        boolean answered;
+        try {
+            answered = probe.getAsBoolean();
+        } catch (RuntimeException e) {
+            answered = false;
+        }
+
+        if (answered) {
+            consecutiveFailures.set(0);
+            state.set(State.CLOSED);
+            System.out.println("Circuit " + name + " closed, provider available again");
+        } else {
+            state.set(State.OPEN);
+            scheduleProbe();
+        }
+    }
+}
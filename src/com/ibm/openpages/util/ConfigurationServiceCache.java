@@ -0,0 +1,88 @@
+package com.ibm.openpages.util;
+
+import com.ibm.openpages.api.configuration.ICurrency;
+import com.ibm.openpages.api.service.IConfigurationService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Caches the list of active currencies read from the configuration service.
+ * </p>
+ * <p>
+ * The configuration service itself is not cached: it belongs to the context of a trigger event
+ * and is not usable once the event is over, so each event creates its own and passes it down.
+ * The active currencies are kept in an immutable {@link CurrencySnapshot} with their ISO codes
+ * already converted to strings; the snapshot expires after a TTL and can be invalidated when
+ * currencies are activated.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class ConfigurationServiceCache {
+
+    public static final long CURRENCIES_TTL_MILLIS = 10L * 60L * 1000L;
+
+    private static volatile CurrencySnapshot currencies;
+
+    /**
+     * Immutable list of active currencies with their precomputed ISO codes.
+     */
+    public static final class CurrencySnapshot {
+        private final List<ICurrency> currencies;
+        private final String[] codes;
+        private final long loadedAt;
+
+        private CurrencySnapshot(List<ICurrency> currencies, long loadedAt) {
+            this.currencies = Collections.unmodifiableList(new ArrayList<>(currencies));
+            this.codes = new String[currencies.size()];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = currencies.get(i).getCurrencyCode().toString();
+            }
+            this.loadedAt = loadedAt;
+        }
+
+        public int size() {
+            return codes.length;
+        }
+
+        public ICurrency getCurrency(int index) {
+            return currencies.get(index);
+        }
+
+        public String getCode(int index) {
+            return codes[index];
+        }
+
+        public List<ICurrency> getCurrencies() {
+            return currencies;
+        }
+    }
+
+    /**
+     * Returns the active currencies, read from the configuration service when the snapshot
+     * is missing or expired.
+     *
+     * @param configurationService The configuration service used to read the currencies.
+     * @return The snapshot of active currencies.
+     */
+    public static CurrencySnapshot getActiveCurrencies(IConfigurationService configurationService) {
+        CurrencySnapshot snapshot = currencies;
+        long now = System.currentTimeMillis();
+        if (snapshot == null || now - snapshot.loadedAt > CURRENCIES_TTL_MILLIS) {
+            // The boolean parameter 'true' indicates to include only active currencies
+            snapshot = new CurrencySnapshot(configurationService.getCurrencies(true), now);
+            currencies = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Forces the active currencies to be read again on next use.
+     */
+    public static void invalidateCurrencies() {
+        currencies = null;
+    }
+}
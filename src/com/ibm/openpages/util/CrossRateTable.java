@@ -0,0 +1,171 @@
+package com.ibm.openpages.util;
+
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.ibm.openpages.constants.ConstantString.SECOND_URL_PART;
+
+/**
+ * <p>
+ * Immutable table of the cross rates between every pair of currencies of a month, shared with
+ * the other triggers that need to convert amounts.
+ * </p>
+ * <p>
+ * The table is built from the CAD-based monthly averages after each refresh and published with
+ * an atomic swap, so readers never lock and always see a complete table. Currencies are given
+ * a process-wide ordinal the first time they are seen; ordinals never change, so a caller can
+ * resolve them once with {@link #ordinal(String)} and convert with
+ * {@link #convert(int, int, double)}, a plain array read. Conversions by ISO code cost one hash
+ * lookup per code. Neither allocates.
+ * </p>
+ * <p>
+ * Rates are the unrounded ratios of the monthly averages, 1 unit of the source currency being
+ * worth getRate(from, to) units of the target currency.
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class CrossRateTable {
+
+    private static final ConcurrentHashMap<String, Integer> ORDINALS = new ConcurrentHashMap<>();
+    private static final Object ORDINALS_LOCK = new Object();
+
+    public static final CrossRateTable EMPTY = new CrossRateTable(null, new double[0][0]);
+
+    private static final AtomicReference<CrossRateTable> CURRENT = new AtomicReference<>(EMPTY);
+
+    private final YearMonth month;
+
+    /**
+     * rates[from][to], NaN when one of the currencies has no average.
+     */
+    private final double[][] rates;
+
+    private CrossRateTable(YearMonth month, double[][] rates) {
+        this.month = month;
+        this.rates = rates;
+    }
+
+    /**
+     * @return The table published by the last refresh, empty before the first one.
+     */
+    public static CrossRateTable current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Publishes a table unless a table of a later month is already published.
+     *
+     * @param table The new table.
+     * @return True if the table was published.
+     */
+    public static boolean publish(CrossRateTable table) {
+        while (true) {
+            CrossRateTable current = CURRENT.get();
+            if (current.month != null && table.month.isBefore(current.month)) {
+                return false;
+            }
+            if (CURRENT.compareAndSet(current, table)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Builds the table of a month from the monthly averages against CAD, CAD itself being added.
+     *
+     * @param month    The month of the averages.
+     * @param cadRates The value of 1 unit of each currency in CAD, keyed by ISO code.
+     * @return The new table, not published yet.
+     */
+    public static CrossRateTable build(YearMonth month, Map<String, Double> cadRates) {
+        intern(SECOND_URL_PART);
+        for (String isoCode : cadRates.keySet()) {
+            intern(isoCode);
+        }
+
+        int size = ORDINALS.size();
+        double[] cadValue = new double[size];
+        Arrays.fill(cadValue, Double.NaN);
+        cadValue[ORDINALS.get(SECOND_URL_PART)] = 1.0;
+        for (Map.Entry<String, Double> cadRate : cadRates.entrySet()) {
+            double value = cadRate.getValue();
+            if (value > 0 && !Double.isInfinite(value)) {
+                cadValue[ORDINALS.get(cadRate.getKey())] = value;
+            }
+        }
+
+        double[][] rates = new double[size][size];
+        for (int from = 0; from < size; from++) {
+            for (int to = 0; to < size; to++) {
+                rates[from][to] = from == to && !Double.isNaN(cadValue[from]) ? 1.0 : cadValue[from] / cadValue[to];
+            }
+        }
+        return new CrossRateTable(month, rates);
+    }
+
+    /**
+     * @param isoCode The ISO code for the currency.
+     * @return The ordinal of the currency, or -1 if no table ever contained it.
+     */
+    public static int ordinal(String isoCode) {
+        Integer ordinal = ORDINALS.get(isoCode);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    private static void intern(String isoCode) {
+        if (!ORDINALS.containsKey(isoCode)) {
+            synchronized (ORDINALS_LOCK) {
+                if (!ORDINALS.containsKey(isoCode)) {
+                    ORDINALS.put(isoCode, ORDINALS.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The month of the averages, or null for the empty table.
+     */
+    public YearMonth getMonth() {
+        return month;
+    }
+
+    public boolean isEmpty() {
+        return rates.length == 0;
+    }
+
+    /**
+     * @return The value of 1 unit of the source currency in the target currency, or NaN if unknown.
+     */
+    public double getRate(int from, int to) {
+        if (from < 0 || to < 0 || from >= rates.length || to >= rates.length) {
+            return Double.NaN;
+        }
+        return rates[from][to];
+    }
+
+    public double getRate(String from, String to) {
+        return getRate(ordinal(from), ordinal(to));
+    }
+
+    /**
+     * Converts an amount between two currencies given by their ordinals.
+     *
+     * @return The converted amount, or NaN if one of the currencies has no rate.
+     */
+    public double convert(int from, int to, double amount) {
+        return amount * getRate(from, to);
+    }
+
+    /**
+     * Converts an amount between two currencies given by their ISO codes.
+     *
+     * @return The converted amount, or NaN if one of the currencies has no rate.
+     */
+    public double convert(String from, String to, double amount) {
+        return amount * getRate(ordinal(from), ordinal(to));
+    }
+}
@@ -0,0 +1,189 @@
+package com.ibm.openpages.util;
+
+import com.ibm.openpages.api.configuration.IExchangeRate;
+import com.ibm.openpages.api.service.IConfigurationService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>
+ * Applies a batch of exchange rates to OpenPages, writing only the ones that changed.
+ * </p>
+ * <p>
+ * The current rates of the active currencies are read once per batch and compared with the
+ * new rates rounded to 4 decimals. Only the currencies whose rounded value differs are written
+ * with {@link Util#updateOneRate(IConfigurationService, String, double, Date)}, so a refresh
+ * that finds the same values as the repository performs no write at all.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class ExchangeRateBatchUpdater {
+
+    private static final double SCALE = 10000.0;
+
+    /**
+     * Counts of a batch update.
+     */
+    public static final class BatchResult {
+        private int written;
+        private int unchanged;
+        private int rejected;
+        private int failed;
+        private final List<String> failedCodes = new ArrayList<>();
+
+        public int getWritten() {
+            return written;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return The ISO codes of the currencies whose write failed.
+         */
+        public List<String> getFailedCodes() {
+            return Collections.unmodifiableList(failedCodes);
+        }
+
+        /**
+         * Adds the counts of another batch to this one.
+         */
+        public void add(BatchResult other) {
+            written += other.written;
+            unchanged += other.unchanged;
+            rejected += other.rejected;
+            failed += other.failed;
+            failedCodes.addAll(other.failedCodes);
+        }
+
+        @Override
+        public String toString() {
+            return "written=" + written + ", unchanged=" + unchanged
+                    + ", rejected=" + rejected + ", failed=" + failed + (failed > 0 ? " " + failedCodes : "");
+        }
+    }
+
+    /**
+     * Writes the rates that differ from the ones currently set in OpenPages.
+     *
+     * @param configurationService The configuration service used to read and update the exchange rates.
+     * @param newRates             The new rates.
+     * @param date                 The date associated with the new exchange rates.
+     * @return The counts of the batch.
+     */
+    public static BatchResult apply(IConfigurationService configurationService, RateBatch newRates, Date date) {
+        BatchResult result = new BatchResult();
+        long[] currentRates = readCurrentRates(configurationService, newRates);
+
+        for (int i = 0; i < newRates.size(); i++) {
+            String isoCode = newRates.getCode(i);
+            double rate = newRates.getRate(i);
+
+            // Never write Infinity, NaN or non positive rates
+            if (!(rate > 0) || Double.isInfinite(rate)) {
+                result.rejected++;
+                continue;
+            }
+
+            if (currentRates[i] == toScaled(rate)) {
+                result.unchanged++;
+                continue;
+            }
+
+            if (Util.updateOneRate(configurationService, isoCode, rate, date)) {
+                result.written++;
+            } else {
+                result.failed++;
+                result.failedCodes.add(isoCode);
+            }
+        }
+
+        System.out.println("Exchange rate batch: " + result);
+        return result;
+    }
+
+    /**
+     * <p>
+     * Writes the rates effective from the given date, without comparing with the current rates,
+     * which only describe the latest month. Used to backfill past months: a rate equal to the one
+     * of the previous month once rounded is skipped, the previous rate staying in effect.
+     * </p>
+     *
+     * @param configurationService The configuration service used to update the exchange rates.
+     * @param rates                The rates.
+     * @param effectiveDate        The date from which the rates apply.
+     * @param previousRates        The rates in effect until that date, or null if they are unknown.
+     * @return The counts of the batch.
+     */
+    public static BatchResult applyEffective(IConfigurationService configurationService, RateBatch rates,
+                                             Date effectiveDate, RateBatch previousRates) {
+        BatchResult result = new BatchResult();
+        for (int i = 0; i < rates.size(); i++) {
+            String isoCode = rates.getCode(i);
+            double rate = rates.getRate(i);
+            int previous = previousRates != null ? previousRates.indexOf(isoCode) : -1;
+            if (!(rate > 0) || Double.isInfinite(rate)) {
+                result.rejected++;
+            } else if (previous >= 0 && toScaled(previousRates.getRate(previous)) == toScaled(rate)) {
+                result.unchanged++;
+            } else if (Util.updateEffectiveRate(configurationService, isoCode, rate, effectiveDate)) {
+                result.written++;
+            } else {
+                result.failed++;
+                result.failedCodes.add(isoCode);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the current rate of every currency of the batch, rounded to 4 decimals, at the index
+     * of the currency in the batch. Currencies whose rate can not be read are left at -1 and will
+     * be written.
+     */
+    private static long[] readCurrentRates(IConfigurationService configurationService, RateBatch newRates) {
+        long[] currentRates = new long[newRates.size()];
+        Arrays.fill(currentRates, -1L);
+        ConfigurationServiceCache.CurrencySnapshot currencies;
+        try {
+            currencies = ConfigurationServiceCache.getActiveCurrencies(configurationService);
+        } catch (Exception e) {
+            System.out.println("Could not read the current exchange rates: " + e.getMessage());
+            return currentRates;
+        }
+
+        for (int i = 0; i < currencies.size(); i++) {
+            int index = newRates.indexOf(currencies.getCode(i));
+            if (index < 0) {
+                continue;
+            }
+            try {
+                IExchangeRate exchangeRate = configurationService.getCurrentExchangeRate(currencies.getCurrency(i));
+                if (exchangeRate != null) {
+                    currentRates[index] = toScaled(exchangeRate.getExchangeRate());
+                }
+            } catch (Exception e) {
+                System.out.println("Could not read the exchange rate of " + currencies.getCode(i) + ": " + e.getMessage());
+            }
+        }
+        return currentRates;
+    }
+
+    private static long toScaled(double rate) {
+        return Math.round(rate * SCALE);
+    }
+}
@@ -0,0 +1,171 @@
+package com.ibm.openpages.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.ibm.openpages.constants.ConstantString.CLUSTER_DIR_PROPERTY;
+
+/**
+ * <p>
+ * {@link LeaseStore} backed by files of a directory shared by every node, e.g. an NFS mount.
+ * </p>
+ * <p>
+ * A lease is an exclusive {@link FileChannel#tryLock()} on {name}.lease, released by the
+ * operating system if the node dies, so a lease is never left behind. Completion is a
+ * {name}.done file written atomically. Both files hold the node that wrote them, for diagnosis.
+ * Several JVMs on one machine pointed to the same local directory behave like a cluster.
+ * </p>
+ * <p>
+ * File locks belong to the whole JVM, and on POSIX systems closing any channel of a file drops
+ * every lock the process holds on it. The lease files held by this JVM are therefore tracked,
+ * and a lease already held here is refused without opening the file again.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class FileLeaseStore implements LeaseStore {
+
+    private static final String LEASE_SUFFIX = ".lease";
+    private static final String DONE_SUFFIX = ".done";
+
+    /**
+     * Lease files held by this JVM, whatever the store that took them.
+     */
+    private static final Set<Path> HELD = ConcurrentHashMap.newKeySet();
+
+    private final Path directory;
+    private final String owner;
+
+    public FileLeaseStore(Path directory) {
+        this.directory = directory;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    /**
+     * @return The store of the directory named by the currency.cluster.dir system property,
+     * or null when the node is not part of a cluster.
+     */
+    public static FileLeaseStore fromSystemProperty() {
+        Path directory = getClusterDirectory();
+        return directory != null ? new FileLeaseStore(directory) : null;
+    }
+
+    /**
+     * @return The shared directory of the cluster, or null when the property is not set.
+     */
+    public static Path getClusterDirectory() {
+        String directory = System.getProperty(CLUSTER_DIR_PROPERTY);
+        if (directory == null || directory.trim().isEmpty()) {
+            return null;
+        }
+        return Paths.get(directory.trim());
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public Lease tryAcquire(String name) throws IOException {
+        Path file = directory.resolve(name + LEASE_SUFFIX).toAbsolutePath().normalize();
+        if (!HELD.add(file)) {
+            // Already held by this JVM, opening the file again could release that lock
+            return null;
+        }
+
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(directory);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                // Held by another node
+                channel.close();
+                HELD.remove(file);
+                return null;
+            }
+
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(describeOwner().getBytes(StandardCharsets.UTF_8)));
+            return new FileLease(name, file, channel, lock);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            HELD.remove(file);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isCompleted(String name) {
+        return Files.isRegularFile(directory.resolve(name + DONE_SUFFIX));
+    }
+
+    @Override
+    public void markCompleted(String name) throws IOException {
+        Files.createDirectories(directory);
+        File temporary = File.createTempFile(name, ".tmp", directory.toFile());
+        try {
+            Files.write(temporary.toPath(), describeOwner().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary.toPath(), directory.resolve(name + DONE_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private String describeOwner() {
+        return owner + " " + Instant.now() + "\n";
+    }
+
+    private static final class FileLease implements Lease {
+        private final String name;
+        private final Path file;
+        private final FileChannel channel;
+        private final FileLock lock;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private FileLease(String name, Path file, FileChannel channel, FileLock lock) {
+            this.name = name;
+            this.file = file;
+            this.channel = channel;
+            this.lock = lock;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                lock.release();
+            } finally {
+                try {
+                    channel.close();
+                } finally {
+                    HELD.remove(file);
+                }
+            }
+        }
+    }
+}
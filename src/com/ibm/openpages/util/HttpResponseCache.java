@@ -0,0 +1,123 @@
+package com.ibm.openpages.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Bounded cache of API responses with their validators, used by {@link ApiClient} to revalidate
+ * a URL with If-None-Match / If-Modified-Since and reuse the response on a 304 Not Modified.
+ * </p>
+ * <p>
+ * The responses are stored parsed, with the parser that read them, so the body is streamed to
+ * the parser and never buffered. The cache is limited in entries and in total size, counted as
+ * the decompressed bytes of the bodies, the least recently used responses are evicted first.
+ * </p>
+ *
+ * @project currency_op
+ */
+class HttpResponseCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 128;
+    static final long DEFAULT_MAX_BYTES = 16L * 1024L * 1024L;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * A parsed response with the validators sent by the server.
+     */
+    static final class CachedResponse {
+        private final String etag;
+        private final long lastModified;
+        private final ApiClient.ResponseParser<?> parser;
+        private final Object value;
+        private final long size;
+
+        /**
+         * @param parser The parser that read the body, a 304 is only served to the same one.
+         * @param value  The parsed body.
+         * @param size   The decompressed size of the body in bytes.
+         */
+        CachedResponse(String etag, long lastModified, ApiClient.ResponseParser<?> parser, Object value, long size) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.parser = parser;
+            this.value = value;
+            this.size = size;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return The Last-Modified date in epoch milliseconds, or 0 if the server sent none.
+         */
+        long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return The parsed body if it was read by the given parser, null otherwise.
+         */
+        @SuppressWarnings("unchecked")
+        <T> T getValue(ApiClient.ResponseParser<T> parser) {
+            return this.parser == parser ? (T) value : null;
+        }
+    }
+
+    HttpResponseCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    HttpResponseCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized CachedResponse get(String url) {
+        return responses.get(url);
+    }
+
+    synchronized void put(String url, CachedResponse response) {
+        if (response.size > maxBytes) {
+            remove(url);
+            return;
+        }
+        CachedResponse previous = responses.put(url, response);
+        if (previous != null) {
+            totalBytes -= previous.size;
+        }
+        totalBytes += response.size;
+
+        Iterator<Map.Entry<String, CachedResponse>> eldest = responses.entrySet().iterator();
+        while ((responses.size() > maxEntries || totalBytes > maxBytes) && eldest.hasNext()) {
+            Map.Entry<String, CachedResponse> entry = eldest.next();
+            if (entry.getValue() == response) {
+                continue;
+            }
+            totalBytes -= entry.getValue().size;
+            eldest.remove();
+        }
+    }
+
+    synchronized void remove(String url) {
+        CachedResponse removed = responses.remove(url);
+        if (removed != null) {
+            totalBytes -= removed.size;
+        }
+    }
+
+    synchronized void clear() {
+        responses.clear();
+        totalBytes = 0;
+    }
+
+    synchronized int size() {
+        return responses.size();
+    }
+}
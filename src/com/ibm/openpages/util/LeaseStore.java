@@ -0,0 +1,54 @@
+package com.ibm.openpages.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * <p>
+ * Coordination of the OpenPages nodes of a cluster, so a refresh is run by a single node.
+ * </p>
+ * <p>
+ * A lease is held by one node at a time for a given name, e.g. the month being refreshed. The
+ * node holding it marks the name completed once the work is done, and the other nodes reuse the
+ * result instead of running the same work again.
+ * </p>
+ *
+ * @project currency_op
+ */
+public interface LeaseStore {
+
+    /**
+     * Tries to take a lease without waiting.
+     *
+     * @param name The name of the lease.
+     * @return The lease, to be closed once the work is done, or null if another node holds it.
+     * @throws IOException If the store can not be reached.
+     */
+    Lease tryAcquire(String name) throws IOException;
+
+    /**
+     * @param name The name of the lease.
+     * @return True if a node marked the work of this lease completed.
+     * @throws IOException If the store can not be reached.
+     */
+    boolean isCompleted(String name) throws IOException;
+
+    /**
+     * Marks the work of a lease completed, for the other nodes.
+     *
+     * @param name The name of the lease.
+     * @throws IOException If the store can not be reached.
+     */
+    void markCompleted(String name) throws IOException;
+
+    /**
+     * A lease held by this node, released on close.
+     */
+    interface Lease extends Closeable {
+
+        String getName();
+
+        @Override
+        void close() throws IOException;
+    }
+}
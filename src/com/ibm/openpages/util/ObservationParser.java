@@ -0,0 +1,206 @@
+package com.ibm.openpages.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.ibm.openpages.beans.RateSeries;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.ibm.openpages.constants.ConstantString.SECOND_URL_PART;
+import static com.ibm.openpages.constants.ConstantString.SERIES_PREFIX;
+
+/**
+ * <p>
+ * Streaming reader for the "observations" array returned by the Valet API.
+ * </p>
+ * <p>
+ * Instead of building a full JsonNode tree, the response is read token by token straight from
+ * the HTTP input stream. The dates and values are parsed from the token characters into the
+ * primitive keys and values of a {@link RateSeries} per currency.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class ObservationParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String OBSERVATIONS = "observations";
+    private static final String SERIES_DETAIL = "seriesDetail";
+    private static final String DATE = "d";
+    private static final String VALUE = "v";
+
+    /**
+     * Length of the "yyyy-MM" prefix of an observation date.
+     */
+    private static final int MONTH_PREFIX_LENGTH = 7;
+
+    /**
+     * Reads every FXM{ISO}CAD series of a group observations response into monthly series,
+     * so all the months of a delta request can be merged into the {@link RateStore}.
+     * <p>
+     * The series listed in the "seriesDetail" member are part of the result even when the
+     * response has no observation of them, e.g. before the month is published, with an empty
+     * series. A currency missing from the result is not part of the group.
+     * </p>
+     *
+     * @param in The response body of /observations/group/{groupName}.
+     * @return A map of ISO code to monthly series, empty if the response has no series.
+     * @throws IOException If the response can not be read or is not valid JSON.
+     */
+    public static Map<String, RateSeries> readGroupSeries(InputStream in) throws IOException {
+        Map<String, RateSeries.Builder> builders = new HashMap<>();
+
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return new HashMap<>();
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                if (SERIES_DETAIL.equals(fieldName) && valueToken == JsonToken.START_OBJECT) {
+                    readSeriesDetail(parser, builders);
+                } else if (OBSERVATIONS.equals(fieldName) && valueToken == JsonToken.START_ARRAY) {
+                    readObservations(parser, builders);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        Map<String, RateSeries> series = new HashMap<>();
+        for (Map.Entry<String, RateSeries.Builder> builder : builders.entrySet()) {
+            series.put(builder.getKey(), builder.getValue().build());
+        }
+        return series;
+    }
+
+    /**
+     * Registers the FXM{ISO}CAD series of the "seriesDetail" object, the parser being on its START_OBJECT.
+     */
+    private static void readSeriesDetail(JsonParser parser, Map<String, RateSeries.Builder> builders)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String seriesName = parser.getCurrentName();
+            parser.nextToken();
+            parser.skipChildren();
+            if (isMonthlySeries(seriesName)) {
+                builders.computeIfAbsent(toIsoCode(seriesName), code -> new RateSeries.Builder(16));
+            }
+        }
+    }
+
+    /**
+     * Reads the monthly values of the "observations" array, the parser being on its START_ARRAY.
+     */
+    private static void readObservations(JsonParser parser, Map<String, RateSeries.Builder> builders)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            int key = Integer.MIN_VALUE;
+            Map<String, Double> values = new HashMap<>();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+
+                if (DATE.equals(fieldName) && valueToken == JsonToken.VALUE_STRING) {
+                    key = parseDateKey(parser.getTextCharacters(), parser.getTextOffset(),
+                            parser.getTextLength(), false);
+                } else if (valueToken == JsonToken.START_OBJECT && isMonthlySeries(fieldName)) {
+                    double value = readValue(parser);
+                    if (!Double.isNaN(value)) {
+                        values.put(fieldName, value);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (key == Integer.MIN_VALUE) {
+                continue;
+            }
+            for (Map.Entry<String, Double> value : values.entrySet()) {
+                builders.computeIfAbsent(toIsoCode(value.getKey()), code -> new RateSeries.Builder(16))
+                        .add(key, value.getValue());
+            }
+        }
+    }
+
+    /**
+     * Converts a "yyyy-MM-dd" date held in a char buffer into an epoch day or epoch month key.
+     *
+     * @return The key, or Integer.MIN_VALUE if the date is malformed.
+     */
+    private static int parseDateKey(char[] text, int offset, int length, boolean daily) {
+        if (length < (daily ? 10 : MONTH_PREFIX_LENGTH)) {
+            return Integer.MIN_VALUE;
+        }
+        int year = digits(text, offset, 4);
+        int month = digits(text, offset + 5, 2);
+        if (year < 0 || month < 1 || month > 12) {
+            return Integer.MIN_VALUE;
+        }
+        if (!daily) {
+            return RateSeries.epochMonth(year, month);
+        }
+        int day = digits(text, offset + 8, 2);
+        if (day < 1 || day > YearMonth.of(year, month).lengthOfMonth()) {
+            return Integer.MIN_VALUE;
+        }
+        return RateSeries.epochDay(LocalDate.of(year, month, day));
+    }
+
+    /**
+     * @return True for a FXM{ISO}CAD series name.
+     */
+    private static boolean isMonthlySeries(String seriesName) {
+        return seriesName.startsWith(SERIES_PREFIX) && seriesName.endsWith(SECOND_URL_PART)
+                && seriesName.length() > SERIES_PREFIX.length() + SECOND_URL_PART.length();
+    }
+
+    private static String toIsoCode(String seriesName) {
+        return seriesName.substring(SERIES_PREFIX.length(), seriesName.length() - SECOND_URL_PART.length());
+    }
+
+    private static int digits(char[] text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = text[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Reads the "v" member of a series object, the parser being on its START_OBJECT.
+     */
+    private static double readValue(JsonParser parser) throws IOException {
+        double value = Double.NaN;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if (VALUE.equals(fieldName) && valueToken.isScalarValue()) {
+                try {
+                    value = valueToken == JsonToken.VALUE_STRING
+                            ? RateConverter.parse(parser.getTextCharacters(), parser.getTextOffset(),
+                            parser.getTextLength())
+                            : parser.getDoubleValue();
+                } catch (NumberFormatException e) {
+                    value = Double.NaN;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+}
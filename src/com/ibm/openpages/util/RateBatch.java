@@ -0,0 +1,89 @@
+package com.ibm.openpages.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The rates to write in one batch, as parallel arrays of ISO codes and rates.
+ * </p>
+ * <p>
+ * Filled by the rate computation and read by {@link ExchangeRateBatchUpdater}, so a refresh
+ * boxes no Double and creates no map entry per currency. A batch can be cleared and filled
+ * again; it is not thread safe and must not be modified once handed to another thread.
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class RateBatch {
+
+    private String[] codes;
+    private double[] rates;
+    private int size;
+
+    /**
+     * @param capacity The expected number of currencies, the batch grows past it.
+     */
+    public RateBatch(int capacity) {
+        codes = new String[Math.max(capacity, 1)];
+        rates = new double[codes.length];
+    }
+
+    /**
+     * Adds the rate of a currency, after the ones already added.
+     */
+    public void add(String isoCode, double rate) {
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, size * 2);
+            rates = Arrays.copyOf(rates, size * 2);
+        }
+        codes[size] = isoCode;
+        rates[size] = rate;
+        size++;
+    }
+
+    public void clear() {
+        Arrays.fill(codes, 0, size, null);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getCode(int index) {
+        return codes[index];
+    }
+
+    public double getRate(int index) {
+        return rates[index];
+    }
+
+    /**
+     * @param isoCode The ISO code of the currency.
+     * @return The index of the currency, or -1 if it is not in the batch.
+     */
+    public int indexOf(String isoCode) {
+        for (int i = 0; i < size; i++) {
+            if (codes[i].equals(isoCode)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(codes[i]).append('=').append(rates[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
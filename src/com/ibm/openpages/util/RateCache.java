@@ -0,0 +1,135 @@
+package com.ibm.openpages.util;
+
+import java.time.YearMonth;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>
+ * Process-wide cache of monthly average exchange rates.
+ * </p>
+ * <p>
+ * Entries are keyed by ISO code and year-month, so the Bank of Canada API only has to be
+ * called once per currency and month for the whole JVM. Every entry expires after a TTL
+ * and the least recently used entries are evicted once the cache reaches its size limit.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class RateCache {
+
+    /**
+     * Monthly averages are only published once a month, a few hours is plenty.
+     */
+    public static final long DEFAULT_TTL_MILLIS = 6L * 60L * 60L * 1000L;
+
+    /**
+     * Roughly 25 active currencies times a couple of years of months.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final RateCache INSTANCE = new RateCache(DEFAULT_TTL_MILLIS, DEFAULT_MAX_ENTRIES);
+
+    private final long ttlMillis;
+    private final Map<Key, CachedRate> entries;
+
+    public RateCache(long ttlMillis, final int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<Key, CachedRate>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedRate> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return The cache shared by every trigger running in this JVM.
+     */
+    public static RateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached rate for the given currency and month.
+     *
+     * @param isoCode The ISO code for the currency.
+     * @param month   The month of the average rate.
+     * @return The cached rate, or null if it is missing or expired.
+     */
+    public synchronized Double get(String isoCode, YearMonth month) {
+        Key key = new Key(isoCode, month);
+        CachedRate entry = entries.get(key);
+        if (entry == null) {
+            TriggerMetrics.getInstance().cacheMisses.increment();
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.storedAt > ttlMillis) {
+            entries.remove(key);
+            TriggerMetrics.getInstance().cacheMisses.increment();
+            return null;
+        }
+        TriggerMetrics.getInstance().cacheHits.increment();
+        return entry.rate;
+    }
+
+    /**
+     * Stores the rate for the given currency and month.
+     *
+     * @param isoCode The ISO code for the currency.
+     * @param month   The month of the average rate.
+     * @param rate    The monthly average rate.
+     */
+    public synchronized void put(String isoCode, YearMonth month, double rate) {
+        entries.put(new Key(isoCode, month), new CachedRate(rate, System.currentTimeMillis()));
+    }
+
+    /**
+     * Removes every cached rate.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Key {
+        private final String isoCode;
+        private final YearMonth month;
+
+        private Key(String isoCode, YearMonth month) {
+            this.isoCode = isoCode;
+            this.month = month;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return isoCode.equals(other.isoCode) && month.equals(other.month);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(isoCode, month);
+        }
+    }
+
+    private static final class CachedRate {
+        private final double rate;
+        private final long storedAt;
+
+        private CachedRate(double rate, long storedAt) {
+            this.rate = rate;
+            this.storedAt = storedAt;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.ibm.openpages.util;
+
+/**
+ * <p>
+ * Allocation-free conversion of the Valet averages into the rates written in OpenPages.
+ * </p>
+ * <p>
+ * Valet publishes decimal averages with at most 10 decimals. A rate is handled as a scaled
+ * long, its digits m and its number of decimals s, so the inverse rounded to 4 decimals is
+ * the integer division round(10^(s+4) / m), rounded half up, with no binary error and no
+ * BigDecimal. The rates parsed by {@link #parse(char[], int, int)} or stored as doubles are
+ * turned back into their decimal digits by {@link #toScaled(double)}, the shortest decimal
+ * giving the same double.
+ * </p>
+ * <p>
+ * The result is the one of BigDecimal.ONE.divide(rate, 4, HALF_UP). It equals the former
+ * new BigDecimal(1 / rate).setScale(4, HALF_UP) except when the exact inverse ends with a 5
+ * on the fifth decimal, where the double 1 / rate could round either way.
+ * </p>
+ *
+ * @project currency_op
+ */
+public final class RateConverter {
+
+    /**
+     * Decimals of the rates written in OpenPages.
+     */
+    public static final int SCALE = 4;
+
+    /**
+     * Decimals of the rates handled as scaled longs, more being parsed as a plain double.
+     */
+    public static final int MAX_DECIMALS = 12;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_DECIMALS + SCALE + 1];
+    private static final double[] DOUBLE_POWERS_OF_TEN = new double[MAX_DECIMALS + 1];
+
+    /**
+     * Largest digits of a rate, every value below being exactly represented by a double.
+     */
+    private static final long MAX_DIGITS = 1L << 53;
+
+    static {
+        long power = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+        for (int i = 0; i < DOUBLE_POWERS_OF_TEN.length; i++) {
+            DOUBLE_POWERS_OF_TEN[i] = POWERS_OF_TEN[i];
+        }
+    }
+
+    private RateConverter() {
+    }
+
+    /**
+     * Parses a decimal rate from the characters of a JSON token without creating a String.
+     * Exponents and rates with more than {@link #MAX_DECIMALS} decimals are left to
+     * Double.parseDouble.
+     *
+     * @return The rate, the double nearest to the decimal as Double.parseDouble would return.
+     * @throws NumberFormatException If the text is not a number.
+     */
+    public static double parse(char[] text, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        boolean negative = i < end && text[i] == '-';
+        if (negative) {
+            i++;
+        }
+
+        long digits = 0;
+        int decimals = -1;
+        int digitCount = 0;
+        for (; i < end; i++) {
+            char c = text[i];
+            if (c >= '0' && c <= '9') {
+                if (digits >= MAX_DIGITS / 10) {
+                    return Double.parseDouble(new String(text, offset, length));
+                }
+                digits = digits * 10 + (c - '0');
+                digitCount++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                return Double.parseDouble(new String(text, offset, length));
+            }
+        }
+
+        if (digitCount == 0) {
+            throw new NumberFormatException("Not a rate: " + new String(text, offset, length));
+        }
+        if (decimals > MAX_DECIMALS) {
+            return Double.parseDouble(new String(text, offset, length));
+        }
+
+        // Both operands are exact doubles, so the division is correctly rounded
+        double value = decimals > 0 ? digits / DOUBLE_POWERS_OF_TEN[decimals] : digits;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Finds the digits of a positive rate given as a double, e.g. 1.3566 is 13566 with 4 decimals.
+     *
+     * @return The digits in the low 58 bits and the number of decimals in the high 6 bits,
+     * or -1 if the rate has no exact decimal form of at most {@link #MAX_DECIMALS} decimals.
+     */
+    public static long toScaled(double rate) {
+        if (!(rate > 0) || Double.isInfinite(rate)) {
+            return -1;
+        }
+        for (int decimals = 0; decimals <= MAX_DECIMALS; decimals++) {
+            double scaled = rate * DOUBLE_POWERS_OF_TEN[decimals];
+            if (scaled >= MAX_DIGITS) {
+                return -1;
+            }
+            long digits = Math.round(scaled);
+            if (digits > 0 && digits / DOUBLE_POWERS_OF_TEN[decimals] == rate) {
+                return ((long) decimals << 58) | digits;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inverts a rate and rounds it half up to {@link #SCALE} decimals.
+     *
+     * @param rate The average against CAD, positive.
+     * @return The inverse in units of 10^-4, or -1 if the rate can not be inverted exactly.
+     */
+    public static long invertScaled(double rate) {
+        long scaled = toScaled(rate);
+        if (scaled < 0) {
+            return -1;
+        }
+        int decimals = (int) (scaled >>> 58);
+        long digits = scaled & ((1L << 58) - 1);
+
+        // round(10^(s+4) / m) = floor((2 * 10^(s+4) + m) / 2m), computed without overflow
+        long numerator = POWERS_OF_TEN[decimals + SCALE];
+        long quotient = numerator / digits;
+        long remainder = numerator - quotient * digits;
+        return remainder * 2 >= digits ? quotient + 1 : quotient;
+    }
+
+    /**
+     * Inverts a rate and rounds it half up to {@link #SCALE} decimals.
+     *
+     * @param rate The average against CAD, positive.
+     * @return The rounded inverse, or NaN if the rate is not positive and finite.
+     */
+    public static double invert(double rate) {
+        long inverse = invertScaled(rate);
+        if (inverse >= 0) {
+            return inverse / (double) POWERS_OF_TEN[SCALE];
+        }
+        if (!(rate > 0) || Double.isInfinite(rate)) {
+            return Double.NaN;
+        }
+        // A rate with no short decimal form, rounded from its binary inverse
+        return Math.floor(1 / rate * POWERS_OF_TEN[SCALE] + 0.5) / POWERS_OF_TEN[SCALE];
+    }
+}
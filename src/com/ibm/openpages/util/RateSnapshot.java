@@ -0,0 +1,224 @@
+package com.ibm.openpages.util;
+
+import com.ibm.openpages.beans.RateSeries;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.ibm.openpages.constants.ConstantString.SNAPSHOT_FILE_NAME;
+import static com.ibm.openpages.constants.ConstantString.SNAPSHOT_PATH_PROPERTY;
+
+/**
+ * <p>
+ * Persists the {@link RateStore} to a compact binary file and reloads it on startup.
+ * </p>
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * header  : magic "OPFX" (int) | version (int) | record count (int) | reserved (int) | written at millis (long)
+ * record  : ISO code (3 ASCII bytes) | padding (byte) | epoch month (int) | rate (double)
+ * </pre>
+ * The file is read back on startup, so the store comes up hot after a restart and keeps serving
+ * rates while the Bank of Canada API is unreachable. Writes go to a temporary file that is
+ * atomically moved over the previous snapshot.
+ * </p>
+ * <p>
+ * The file holds a few thousand records at most, so it is read whole into a heap buffer rather
+ * than memory-mapped: a mapping is only released when it is garbage collected, and a mapped file
+ * can not be replaced on Windows, which would make every later save fail.
+ * </p>
+ * <p>
+ * The nodes of a cluster share the snapshot file. A save merges the store with the records
+ * already in the file, so a node never drops the months saved by another one since it last read
+ * the file; the refresh saves it while holding the lease of the month.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class RateSnapshot {
+
+    public static final int MAGIC = 0x4F504658;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int RECORD_SIZE = 16;
+
+    private static final int CODE_LENGTH = 3;
+
+    private static final AtomicBoolean LOADED = new AtomicBoolean();
+
+    /**
+     * @return The snapshot file, from the system property, in the cluster directory shared by
+     * the nodes, or in the temporary directory.
+     */
+    public static Path getPath() {
+        String path = System.getProperty(SNAPSHOT_PATH_PROPERTY);
+        if (path == null || path.trim().isEmpty()) {
+            Path clusterDirectory = FileLeaseStore.getClusterDirectory();
+            if (clusterDirectory != null) {
+                return clusterDirectory.resolve(SNAPSHOT_FILE_NAME);
+            }
+            return Paths.get(System.getProperty("java.io.tmpdir"), SNAPSHOT_FILE_NAME);
+        }
+        return Paths.get(path.trim());
+    }
+
+    /**
+     * Loads the snapshot into the shared {@link RateStore} the first time it is called.
+     */
+    public static void ensureLoaded() {
+        if (LOADED.compareAndSet(false, true)) {
+            int records = load(getPath(), RateStore.getInstance());
+            if (records > 0) {
+                System.out.println("Loaded " + records + " exchange rates from " + getPath());
+            }
+        }
+    }
+
+    /**
+     * Merges the snapshot file into the shared {@link RateStore} again, e.g. after another node
+     * of the cluster wrote it.
+     *
+     * @return The number of records read.
+     */
+    public static int reload() {
+        LOADED.set(true);
+        return load(getPath(), RateStore.getInstance());
+    }
+
+    /**
+     * Writes the shared {@link RateStore} to the snapshot file.
+     */
+    public static void save() {
+        try {
+            save(getPath(), RateStore.getInstance());
+        } catch (IOException e) {
+            System.out.println("Could not write rate snapshot " + getPath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a snapshot file into a store.
+     *
+     * @param path  The snapshot file.
+     * @param store The store to merge the records into.
+     * @return The number of records read, 0 if the file is missing or invalid.
+     */
+    public static int load(Path path, RateStore store) {
+        if (!Files.isRegularFile(path)) {
+            return 0;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return 0;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.BIG_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Reads until the buffer is full or the file ends
+            }
+            size = buffer.position();
+
+            int magic = buffer.getInt(0);
+            int version = buffer.getInt(4);
+            int count = buffer.getInt(8);
+            if (magic != MAGIC || version != VERSION || count < 0
+                    || HEADER_SIZE + (long) count * RECORD_SIZE > size) {
+                System.out.println("Ignoring invalid rate snapshot " + path);
+                return 0;
+            }
+
+            Map<String, RateSeries.Builder> builders = new HashMap<>();
+            byte[] code = new byte[CODE_LENGTH];
+            for (int i = 0; i < count; i++) {
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                for (int c = 0; c < CODE_LENGTH; c++) {
+                    code[c] = buffer.get(offset + c);
+                }
+                int epochMonth = buffer.getInt(offset + 4);
+                double rate = buffer.getDouble(offset + 8);
+                if (rate > 0 && !Double.isInfinite(rate)) {
+                    builders.computeIfAbsent(new String(code, StandardCharsets.US_ASCII),
+                            isoCode -> new RateSeries.Builder()).add(epochMonth, rate);
+                }
+            }
+
+            for (Map.Entry<String, RateSeries.Builder> builder : builders.entrySet()) {
+                store.merge(builder.getKey(), builder.getValue().build());
+            }
+            return count;
+        } catch (IOException e) {
+            System.out.println("Could not read rate snapshot " + path + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Writes every series of a store to a snapshot file, merged with the records already in the
+     * file, the store winning on duplicated months.
+     *
+     * @param path  The snapshot file.
+     * @param store The store to write.
+     * @throws IOException If the file can not be written.
+     */
+    public static synchronized void save(Path path, RateStore store) throws IOException {
+        RateStore merged = new RateStore();
+        load(path, merged);
+        for (String isoCode : store.getCodes()) {
+            merged.merge(isoCode, store.getSeries(isoCode));
+        }
+
+        Map<String, RateSeries> seriesByCode = new HashMap<>();
+        int count = 0;
+        for (String isoCode : merged.getCodes()) {
+            if (isoCode.length() != CODE_LENGTH) {
+                continue;
+            }
+            RateSeries series = merged.getSeries(isoCode);
+            seriesByCode.put(isoCode, series);
+            count += series.size();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0).putLong(System.currentTimeMillis());
+        for (Map.Entry<String, RateSeries> entry : seriesByCode.entrySet()) {
+            byte[] code = entry.getKey().getBytes(StandardCharsets.US_ASCII);
+            RateSeries series = entry.getValue();
+            for (int i = 0; i < series.size(); i++) {
+                buffer.put(code).put((byte) 0).putInt(series.keyAt(i)).putDouble(series.valueAt(i));
+            }
+        }
+        buffer.flip();
+
+        Path directory = path.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        File temporary = File.createTempFile(SNAPSHOT_FILE_NAME, ".tmp",
+                directory != null ? directory.toFile() : null);
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temporary.toPath(), path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+}
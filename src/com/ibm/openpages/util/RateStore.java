@@ -0,0 +1,97 @@
+package com.ibm.openpages.util;
+
+import com.ibm.openpages.beans.RateSeries;
+
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * In-memory store of the monthly rate history of every currency.
+ * </p>
+ * <p>
+ * Each currency holds an immutable {@link RateSeries} keyed by epoch month. Updates build a new
+ * series and swap it in, so readers never lock and always see a consistent series.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class RateStore {
+
+    /**
+     * Largest number of months requested to bring a series up to date.
+     */
+    public static final int MAX_DELTA_MONTHS = 24;
+
+    private static final RateStore INSTANCE = new RateStore();
+
+    private final ConcurrentHashMap<String, RateSeries> seriesByCode = new ConcurrentHashMap<>();
+
+    /**
+     * @return The store shared by every trigger running in this JVM.
+     */
+    public static RateStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param isoCode The ISO code for the currency.
+     * @return The monthly series of the currency, empty if nothing is stored.
+     */
+    public RateSeries getSeries(String isoCode) {
+        RateSeries series = seriesByCode.get(isoCode);
+        return series != null ? series : RateSeries.EMPTY;
+    }
+
+    /**
+     * @param isoCode The ISO code for the currency.
+     * @param month   The month of the average rate.
+     * @return The stored monthly average, or NaN if it is not stored.
+     */
+    public double getRate(String isoCode, YearMonth month) {
+        return getSeries(isoCode).get(RateSeries.epochMonth(month));
+    }
+
+    /**
+     * <p>
+     * Returns the first month to request so the stored series of a currency reaches the given month.
+     * </p>
+     * <p>
+     * Only the months after the last stored one are needed. A currency without history, or whose
+     * history already goes past the month, only needs the month itself. The delta is capped to
+     * {@value #MAX_DELTA_MONTHS} months so a long outage does not turn into a full history download.
+     * </p>
+     *
+     * @param isoCode The ISO code for the currency.
+     * @param month   The month that must be stored.
+     * @return The start of the request, never after the month.
+     */
+    public YearMonth getSyncStart(String isoCode, YearMonth month) {
+        RateSeries series = getSeries(isoCode);
+        int target = RateSeries.epochMonth(month);
+        if (series.isEmpty() || series.lastKey() >= target) {
+            return month;
+        }
+        return RateSeries.toYearMonth(Math.max(series.lastKey() + 1, target - MAX_DELTA_MONTHS + 1));
+    }
+
+    /**
+     * Merges a series into the stored one, the new values winning on duplicated months.
+     */
+    public void merge(String isoCode, RateSeries series) {
+        if (series.isEmpty()) {
+            return;
+        }
+        seriesByCode.compute(isoCode, (code, current) -> current == null ? series : current.merge(series));
+    }
+
+    public Set<String> getCodes() {
+        return Collections.unmodifiableSet(seriesByCode.keySet());
+    }
+
+    public void clear() {
+        seriesByCode.clear();
+    }
+}
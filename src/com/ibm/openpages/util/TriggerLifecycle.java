@@ -0,0 +1,89 @@
+package com.ibm.openpages.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Shutdown of the background threads started by the currency trigger.
+ * </p>
+ * <p>
+ * OpenPages gives the triggers no undeploy callback, and the threads of a JAR keep running
+ * with its class loader after a redeployment. Every component starting a thread registers a
+ * stop action here; {@link #shutdown()} runs them once, in reverse order of registration. It is
+ * invoked through the shutdown operation of the {@link TriggerMetrics} MBean, which the next
+ * deployment calls on the MBean of the previous one before replacing it.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class TriggerLifecycle {
+
+    private static final List<StopAction> STOP_ACTIONS = new ArrayList<>();
+
+    private static boolean shutdown;
+
+    private static final class StopAction {
+        private final String name;
+        private final Runnable action;
+
+        private StopAction(String name, Runnable action) {
+            this.name = name;
+            this.action = action;
+        }
+    }
+
+    private TriggerLifecycle() {
+    }
+
+    /**
+     * Registers the stop action of a background thread. Registered after the shutdown, the
+     * action is run immediately.
+     *
+     * @param name   Name of the component, for the logs.
+     * @param action Stops the threads of the component without waiting for them.
+     */
+    public static void register(String name, Runnable action) {
+        synchronized (STOP_ACTIONS) {
+            if (!shutdown) {
+                STOP_ACTIONS.add(new StopAction(name, action));
+                return;
+            }
+        }
+        stop(new StopAction(name, action));
+    }
+
+    /**
+     * Stops every registered background thread. Only the first call has an effect.
+     */
+    public static void shutdown() {
+        List<StopAction> actions;
+        synchronized (STOP_ACTIONS) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            actions = new ArrayList<>(STOP_ACTIONS);
+            STOP_ACTIONS.clear();
+        }
+
+        for (int i = actions.size() - 1; i >= 0; i--) {
+            stop(actions.get(i));
+        }
+        System.out.println("Currency trigger background threads stopped: " + actions.size());
+    }
+
+    public static boolean isShutdown() {
+        synchronized (STOP_ACTIONS) {
+            return shutdown;
+        }
+    }
+
+    private static void stop(StopAction stopAction) {
+        try {
+            stopAction.action.run();
+        } catch (RuntimeException e) {
+            System.out.println("Could not stop " + stopAction.name + ": " + e.getMessage());
+        }
+    }
+}
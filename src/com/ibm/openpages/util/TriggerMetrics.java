@@ -0,0 +1,326 @@
+package com.ibm.openpages.util;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Low-overhead metrics of the currency trigger.
+ * </p>
+ * <p>
+ * Latencies are recorded in lock-free histograms with power-of-two nanosecond buckets and the
+ * counters are {@link LongAdder}s, so recording costs a few atomic increments on the trigger
+ * thread. The metrics are exposed as the JMX MBean {@value #OBJECT_NAME} and a summary line is
+ * printed every {@value #SUMMARY_PERIOD_MINUTES} minutes when something was recorded.
+ * </p>
+ * <p>
+ * The MBean also carries the shutdown of the trigger threads (see {@link TriggerLifecycle}): a
+ * redeployed JAR invokes it on the MBean of the previous class loader before replacing it.
+ * </p>
+ *
+ * @project currency_op
+ */
+public class TriggerMetrics implements TriggerMetricsMBean {
+
+    public static final String OBJECT_NAME = "com.ibm.openpages.currency:type=TriggerMetrics";
+
+    public static final long SUMMARY_PERIOD_MINUTES = 5L;
+
+    private static final TriggerMetrics INSTANCE = new TriggerMetrics();
+
+    /**
+     * Total time of CurrencyHandler.handleEvent.
+     */
+    public final Histogram handler = new Histogram();
+
+    /**
+     * Time of each Valet API call, connection and body included.
+     */
+    public final Histogram http = new Histogram();
+
+    /**
+     * Time spent in the response parsers, which read from the network stream.
+     */
+    public final Histogram parse = new Histogram();
+
+    /**
+     * Time of each IConfigurationService.setExchangeRate call.
+     */
+    public final Histogram setExchangeRate = new Histogram();
+
+    public final LongAdder cacheHits = new LongAdder();
+    public final LongAdder cacheMisses = new LongAdder();
+    public final LongAdder notModified = new LongAdder();
+    public final LongAdder failures = new LongAdder();
+    public final LongAdder shortCircuited = new LongAdder();
+    public final LongAdder staleRates = new LongAdder();
+    public final LongAdder skippedCurrencies = new LongAdder();
+
+    private long lastSummaryCount = -1;
+
+    static {
+        INSTANCE.register();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "currency-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleWithFixedDelay(INSTANCE::printSummary,
+                SUMMARY_PERIOD_MINUTES, SUMMARY_PERIOD_MINUTES, TimeUnit.MINUTES);
+        TriggerLifecycle.register("metrics reporter", reporter::shutdownNow);
+    }
+
+    /**
+     * @return The metrics shared by every trigger running in this JVM.
+     */
+    public static TriggerMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Latency histogram with 64 power-of-two buckets: bucket i counts durations in [2^i, 2^(i+1)) ns.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        public void record(long nanos) {
+            if (nanos < 1) {
+                nanos = 1;
+            }
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        /**
+         * Records the time elapsed since the given System.nanoTime() value.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0.0 : totalNanos.sum() / (double) n / 1_000_000.0;
+        }
+
+        /**
+         * @param percentile Between 0 and 100.
+         * @return The upper bound of the bucket holding the percentile, in milliseconds.
+         */
+        public double getPercentileMillis(double percentile) {
+            long total = 0;
+            long[] snapshot = new long[buckets.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0.0;
+            }
+
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= Math.max(rank, 1)) {
+                    return Math.scalb(1.0, i + 1) / 1_000_000.0;
+                }
+            }
+            return Math.scalb(1.0, snapshot.length) / 1_000_000.0;
+        }
+
+        public void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalNanos.reset();
+        }
+
+        private String format() {
+            return String.format("n=%d p50=%.2fms p99=%.2fms max=%.2fms",
+                    getCount(), getPercentileMillis(50), getPercentileMillis(99), getPercentileMillis(100));
+        }
+    }
+
+    @Override
+    public long getHandlerCount() {
+        return handler.getCount();
+    }
+
+    @Override
+    public double getHandlerP50Millis() {
+        return handler.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getHandlerP99Millis() {
+        return handler.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getHandlerMaxMillis() {
+        return handler.getPercentileMillis(100);
+    }
+
+    @Override
+    public long getHttpCount() {
+        return http.getCount();
+    }
+
+    @Override
+    public double getHttpP50Millis() {
+        return http.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getHttpP99Millis() {
+        return http.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getHttpMaxMillis() {
+        return http.getPercentileMillis(100);
+    }
+
+    @Override
+    public long getParseCount() {
+        return parse.getCount();
+    }
+
+    @Override
+    public double getParseP50Millis() {
+        return parse.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getParseP99Millis() {
+        return parse.getPercentileMillis(99);
+    }
+
+    @Override
+    public long getSetExchangeRateCount() {
+        return setExchangeRate.getCount();
+    }
+
+    @Override
+    public double getSetExchangeRateP50Millis() {
+        return setExchangeRate.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getSetExchangeRateP99Millis() {
+        return setExchangeRate.getPercentileMillis(99);
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getShortCircuited() {
+        return shortCircuited.sum();
+    }
+
+    @Override
+    public long getStaleRates() {
+        return staleRates.sum();
+    }
+
+    @Override
+    public String getCircuitState() {
+        return ApiClient.getCircuitBreaker().getState().name();
+    }
+
+    @Override
+    public long getSkippedCurrencies() {
+        return skippedCurrencies.sum();
+    }
+
+    @Override
+    public String getSummary() {
+        return "currency trigger metrics: handler[" + handler.format() + "] http[" + http.format()
+                + "] parse[" + parse.format() + "] setExchangeRate[" + setExchangeRate.format()
+                + "] cacheHits=" + getCacheHits() + " cacheMisses=" + getCacheMisses() + " notModified=" + getNotModified()
+                + " failures=" + getFailures() + " skippedCurrencies=" + getSkippedCurrencies()
+                + " shortCircuited=" + getShortCircuited() + " staleRates=" + getStaleRates()
+                + " circuit=" + getCircuitState();
+    }
+
+    @Override
+    public void shutdown() {
+        TriggerLifecycle.shutdown();
+    }
+
+    @Override
+    public void reset() {
+        handler.reset();
+        http.reset();
+        parse.reset();
+        setExchangeRate.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        notModified.reset();
+        failures.reset();
+        shortCircuited.reset();
+        staleRates.reset();
+        skippedCurrencies.reset();
+    }
+
+    private void printSummary() {
+        long count = handler.getCount() + http.getCount() + setExchangeRate.getCount();
+        if (count != lastSummaryCount) {
+            lastSummaryCount = count;
+            System.out.println(getSummary());
+        }
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // A redeployed trigger JAR stops the threads of the previous class loader and replaces its MBean
+            if (server.isRegistered(name)) {
+                try {
+                    server.invoke(name, "shutdown", null, null);
+                } catch (JMException e) {
+                    System.out.println("Could not stop the previous currency trigger: " + e.getMessage());
+                }
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException | SecurityException e) {
+            System.out.println("Could not register " + OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.ibm.openpages.util;
+
+/**
+ * JMX view of the currency trigger metrics, see {@link TriggerMetrics}.
+ * Latencies are in milliseconds and estimated from power-of-two histogram buckets.
+ *
+ * @project currency_op
+ */
+public interface TriggerMetricsMBean {
+
+    long getHandlerCount();
+
+    double getHandlerP50Millis();
+
+    double getHandlerP99Millis();
+
+    double getHandlerMaxMillis();
+
+    long getHttpCount();
+
+    double getHttpP50Millis();
+
+    double getHttpP99Millis();
+
+    double getHttpMaxMillis();
+
+    long getParseCount();
+
+    double getParseP50Millis();
+
+    double getParseP99Millis();
+
+    long getSetExchangeRateCount();
+
+    double getSetExchangeRateP50Millis();
+
+    double getSetExchangeRateP99Millis();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    /**
+     * @return The API responses revalidated with a 304 Not Modified.
+     */
+    long getNotModified();
+
+    long getFailures();
+
+    long getSkippedCurrencies();
+
+    /**
+     * @return The requests refused by the open circuit breaker.
+     */
+    long getShortCircuited();
+
+    /**
+     * @return The rates served from the last known value because the provider could not answer.
+     */
+    long getStaleRates();
+
+    /**
+     * @return CLOSED, OPEN or HALF_OPEN.
+     */
+    String getCircuitState();
+
+    String getSummary();
+
+    void reset();
+
+    /**
+     * Stops the background threads of the trigger, see {@link TriggerLifecycle}.
+     */
+    void shutdown();
+}
@@ -1,23 +1,24 @@
 package com.ibm.openpages.util;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ibm.openpages.api.configuration.IExchangeRate;
 import com.ibm.openpages.api.service.IConfigurationService;
-import com.ibm.openpages.beans.FXUSDCAD;
-import com.ibm.openpages.beans.Observation;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import com.ibm.openpages.beans.RateSeries;
+
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+import static com.ibm.openpages.constants.ConstantString.FIRST_URL_PART;
+import static com.ibm.openpages.constants.ConstantString.GROUP_OBSERVATIONS_URL;
+import static com.ibm.openpages.constants.ConstantString.SECOND_URL_PART;
 import static com.ibm.openpages.constants.ConstantString.SLASH_CAD;
 
 /**
@@ -38,82 +39,13 @@ public class Util {
      * <p>
      * This method connects to the API using the provided URL and retrieves the JSON data
      * representation of the API response. The JSON data is then parsed into a JsonNode object
-     * and returned.
+     * and returned. The request itself is delegated to {@link ApiClient#getApiData(String)}.
      *
      * @param apiUrl The URL of the API.
      * @return The JSON data retrieved from the API as a JsonNode object.
      */
     public static JsonNode getApiData(String apiUrl) {
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode jsonNode = null;
-        try {
-            URL url = new URL(apiUrl);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-            reader.close();
-
-            jsonNode = objectMapper.readTree(response.toString());
-
-            connection.disconnect();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return jsonNode;
-    }
-
-    /**
-     * <p>
-     * Retrieves observations for a specific year and month from the provided JSON data.
-     * <p>
-     * This method filters the observations based on the specified year and month from the JSON data.
-     * It expects the JSON data to have a structure containing an "observations" node, where each observation
-     * includes a date (d) and the exchange rate (FXUSDCAD). The method extracts the relevant observations
-     * for the specified year and month, creates Observation objects, populates them with the date and exchange rate,
-     * and adds them to a list. The list of observations for the specified year and month is then returned.
-     * </p>
-     *
-     * @param jsonNode The JSON data containing the observations.
-     * @param year     The year to filter the observations.
-     * @param month    The month to filter the observations.
-     * @return A list of observations for the specified year and month.
-     */
-    public static List<Observation> getObservationsForDate(JsonNode jsonNode, String year, String month) {
-        List<Observation> observations = new ArrayList<>();
-
-        if (jsonNode != null && jsonNode.has("observations")) {
-            JsonNode observationsNode = jsonNode.get("observations");
-
-            for (JsonNode observationNode : observationsNode) {
-                String observationDate = observationNode.get("d").asText();
-                String[] dateParts = observationDate.split("-");
-                String observationYear = dateParts[0];
-                String observationMonth = dateParts[1];
-
-                if (observationYear.equals(year) && observationMonth.equals(month)) {
-                    JsonNode fxusdcadNode = observationNode.get("FXUSDCAD");
-                    String exchangeRate = fxusdcadNode.get("v").asText();
-
-                    Observation observation = new Observation();
-                    observation.setD(observationDate);
-
-                    FXUSDCAD fxusdcad = new FXUSDCAD();
-                    fxusdcad.setV(exchangeRate);
-
-                    observation.setFxusdcad(fxusdcad);
-
-                    observations.add(observation);
-                }
-            }
-        }
-
-        return observations;
+        return ApiClient.getApiData(apiUrl);
     }
 
     /**
@@ -150,48 +82,230 @@ public class Util {
 
 
     /**
-     * Calculates the average rate for a specific month and year based on the provided JSON data.
+     * @return The URL of the FXM{ISO}CAD observations from the first month not stored to the given month.
+     */
+    private static String getSeriesDeltaUrl(String isoCode, YearMonth month) {
+        return FIRST_URL_PART + isoCode + SECOND_URL_PART
+                + "?start_date=" + RateStore.getInstance().getSyncStart(isoCode, month).atDay(1)
+                + "&end_date=" + month.atEndOfMonth();
+    }
+
+    /**
+     * Returns the average rates of several currencies against CAD for the given month.
      * <p>
-     * This method calculates the average rate for a specific month and year by iterating over the
-     * observations in the JSON data. It expects the JSON data to have a structure containing an
-     * "observations" node. It compares the year and month of each observation with the provided
-     * year and month parameters. If a match is found, it retrieves the exchange rate for the
-     * specified ISO code and calculates the average rate. The method returns the average rate as
-     * a double value. If an error occurs or the rate is not found, it returns a default value of 0.0.
+     * Known rates are taken from the {@link RateCache} and the {@link RateStore}. If any currency is missing, the
+     * FX_RATES_MONTHLY group is downloaded with a single request, from the first month not stored
+     * for the missing currencies to the given month, and every series found is merged into the
+     * store, so neither the number of API calls nor the payload grows with the number of active
+     * currencies or the length of the history. Currencies that are not part of the group response
+     * (see {@link ObservationParser#readGroupSeries(java.io.InputStream)}) fall back to the missing
+     * months of their own FXM{ISO}CAD series, fetched concurrently within
+     * {@link ApiClient#FETCH_ALL_DEADLINE_MILLIS}. A currency of the group whose month is not
+     * published yet is not fetched again on its own, and a currency that is not part of the group
+     * and has no rate for the month is not published by the Bank of Canada at all.
+     * New rates are persisted with {@link RateSnapshot}, and a currency that still can not be
+     * fetched falls back to its last known rate so the trigger keeps working offline.
      * </p>
      *
-     * @param isoCode    The ISO code for the currency.
-     * @param year       The year for which to calculate the average rate.
-     * @param month      The month for which to calculate the average rate.
-     * @param jsonString The JSON data containing the observations.
-     * @return The average rate for the specified month and year.
+     * @param month    The month for which to get the average rates.
+     * @param isoCodes The ISO codes for the currencies.
+     * @return A map of ISO code to monthly average rate, only containing the rates found.
      */
-    public static double getAverageMonthlyRates(String isoCode, String year, String month, JsonNode jsonString) {
-        try {
-            JsonNode observationsNode = jsonString.get("observations");
-            for (JsonNode observationNode : observationsNode) {
-                String dateValue = observationNode.get("d").asText();
-                String observationYear = dateValue.substring(0, 4);
-                String observationMonth = dateValue.substring(5, 7);
-
-                if (observationYear.equals(year) && observationMonth.equals(month)) {
-                    JsonNode fxNode = observationNode.get("FXM" + isoCode + "CAD");
-                    if (fxNode != null) {
-                        JsonNode valueNode = fxNode.get("v");
-                        if (valueNode != null) {
-                            String valueString = valueNode.asText();
-                            System.out.println("Value for year " + year + " and month " + month + ": " + valueString);
-                            return Double.parseDouble(valueString);
-                        }
+    public static Map<String, Double> getMonthlyRates(YearMonth month, Collection<String> isoCodes) {
+        return getMonthlyRates(month, isoCodes, null);
+    }
+
+    /**
+     * Same as {@link #getMonthlyRates(YearMonth, Collection)}, reporting the currencies whose
+     * rate is a last known one of an earlier month.
+     *
+     * @param month      The month for which to get the average rates.
+     * @param isoCodes   The ISO codes for the currencies.
+     * @param staleCodes Receives the ISO codes served with their last known rate, may be null.
+     * @return A map of ISO code to monthly average rate, only containing the rates found.
+     */
+    public static Map<String, Double> getMonthlyRates(YearMonth month, Collection<String> isoCodes,
+                                                      Set<String> staleCodes) {
+        return getMonthlyRates(month, isoCodes, staleCodes, null);
+    }
+
+    /**
+     * Same as {@link #getMonthlyRates(YearMonth, Collection, Set)}, also reporting the currencies
+     * that are not published: missing from the FX_RATES_MONTHLY group response and without a rate
+     * for the month in their own series. Waiting for them is pointless, so they are never reported
+     * as stale.
+     *
+     * @param month            The month for which to get the average rates.
+     * @param isoCodes         The ISO codes for the currencies.
+     * @param staleCodes       Receives the ISO codes served with their last known rate, may be null.
+     * @param unpublishedCodes Receives the ISO codes the Bank of Canada does not publish, may be null.
+     * @return A map of ISO code to monthly average rate, only containing the rates found.
+     */
+    public static Map<String, Double> getMonthlyRates(YearMonth month, Collection<String> isoCodes,
+                                                      Set<String> staleCodes, Set<String> unpublishedCodes) {
+        RateSnapshot.ensureLoaded();
+        RateCache cache = RateCache.getInstance();
+        RateStore store = RateStore.getInstance();
+        Map<String, Double> rates = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+
+        for (String isoCode : isoCodes) {
+            Double cached = cache.get(isoCode, month);
+            double stored = cached != null ? cached : store.getRate(isoCode, month);
+            if (stored > 0) {
+                if (cached == null) {
+                    cache.put(isoCode, month, stored);
+                }
+                rates.put(isoCode, stored);
+            } else {
+                missing.add(isoCode);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return rates;
+        }
+
+        // One delta request covering the missing currency whose history is the oldest
+        YearMonth start = month;
+        for (String isoCode : missing) {
+            YearMonth syncStart = store.getSyncStart(isoCode, month);
+            if (syncStart.isBefore(start)) {
+                start = syncStart;
+            }
+        }
+
+        Map<String, RateSeries> groupSeries = ApiClient.getApiData(GROUP_OBSERVATIONS_URL
+                        + "?start_date=" + start.atDay(1)
+                        + "&end_date=" + month.atEndOfMonth(),
+                ObservationParser::readGroupSeries);
+        if (groupSeries != null) {
+            for (Map.Entry<String, RateSeries> series : groupSeries.entrySet()) {
+                store.merge(series.getKey(), series.getValue());
+            }
+        }
+
+        // Only the series that are not part of the group response are fetched on their own,
+        // a series of the group without the month is not published yet
+        Map<String, String> seriesUrls = new HashMap<>();
+        for (String isoCode : missing) {
+            double rate = store.getRate(isoCode, month);
+            if (rate > 0) {
+                cache.put(isoCode, month, rate);
+                rates.put(isoCode, rate);
+            } else if (groupSeries == null || !groupSeries.containsKey(isoCode)) {
+                seriesUrls.put(isoCode, getSeriesDeltaUrl(isoCode, month));
+            }
+        }
+
+        // No fan-out while the circuit is open, every request would be refused
+        if (!seriesUrls.isEmpty() && ApiClient.getCircuitBreaker().getState() == CircuitBreaker.State.CLOSED) {
+            Map<String, Map<String, RateSeries>> seriesObservations = ApiClient.getAllApiData(seriesUrls,
+                    ObservationParser::readGroupSeries,
+                    ApiClient.FETCH_ALL_DEADLINE_MILLIS);
+            for (Map.Entry<String, Map<String, RateSeries>> series : seriesObservations.entrySet()) {
+                RateSeries delta = series.getValue().get(series.getKey());
+                if (delta == null) {
+                    continue;
+                }
+                store.merge(series.getKey(), delta);
+                double rate = delta.get(RateSeries.epochMonth(month));
+                if (rate > 0) {
+                    cache.put(series.getKey(), month, rate);
+                    rates.put(series.getKey(), rate);
+                }
+            }
+        }
+        RateSnapshot.save();
+
+        // Still missing, e.g. not published yet or the API is unreachable: serve the last known rate
+        for (String isoCode : missing) {
+            if (!rates.containsKey(isoCode)) {
+                boolean unpublished = groupSeries != null && !groupSeries.containsKey(isoCode);
+                if (unpublished && unpublishedCodes != null) {
+                    unpublishedCodes.add(isoCode);
+                }
+                double lastKnown = store.getSeries(isoCode).getLatestAtOrBefore(RateSeries.epochMonth(month));
+                if (lastKnown > 0) {
+                    TriggerMetrics.getInstance().staleRates.increment();
+                    rates.put(isoCode, lastKnown);
+                    if (staleCodes != null && !unpublished) {
+                        staleCodes.add(isoCode);
                     }
-                    break;
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
 
-        return 0.0; // Return a default value if an error occurs or the value is not found
+        return rates;
+    }
+
+    /**
+     * <p>
+     * Returns the monthly series of several currencies covering a range of months.
+     * </p>
+     * <p>
+     * Currencies whose stored history already holds every month of the range are served from the
+     * {@link RateStore}. The others are fetched with a single FX_RATES_MONTHLY group request for
+     * the whole range, read in one streaming pass, and the currencies missing from the group fall
+     * back to their own FXM{ISO}CAD series over the same range, fetched concurrently. Everything
+     * fetched is merged into the store and persisted with {@link RateSnapshot}.
+     * </p>
+     *
+     * @param from     The first month of the range.
+     * @param to       The last month of the range.
+     * @param isoCodes The ISO codes for the currencies.
+     * @return The stored series of every currency that has at least one rate, keyed by ISO code.
+     */
+    public static Map<String, RateSeries> getMonthlyRateSeries(YearMonth from, YearMonth to, Collection<String> isoCodes) {
+        RateSnapshot.ensureLoaded();
+        RateStore store = RateStore.getInstance();
+        int firstKey = RateSeries.epochMonth(from);
+        int lastKey = RateSeries.epochMonth(to);
+
+        List<String> missing = new ArrayList<>();
+        for (String isoCode : isoCodes) {
+            if (store.getSeries(isoCode).countInRange(firstKey, lastKey) < lastKey - firstKey + 1) {
+                missing.add(isoCode);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            String range = "?start_date=" + from.atDay(1) + "&end_date=" + to.atEndOfMonth();
+            Map<String, RateSeries> groupSeries = ApiClient.getApiData(GROUP_OBSERVATIONS_URL + range,
+                    ObservationParser::readGroupSeries);
+            if (groupSeries != null) {
+                for (Map.Entry<String, RateSeries> series : groupSeries.entrySet()) {
+                    store.merge(series.getKey(), series.getValue());
+                }
+            }
+
+            Map<String, String> seriesUrls = new HashMap<>();
+            for (String isoCode : missing) {
+                if (groupSeries == null || !groupSeries.containsKey(isoCode)) {
+                    seriesUrls.put(isoCode, FIRST_URL_PART + isoCode + SECOND_URL_PART + range);
+                }
+            }
+            if (!seriesUrls.isEmpty()) {
+                Map<String, Map<String, RateSeries>> seriesObservations = ApiClient.getAllApiData(seriesUrls,
+                        ObservationParser::readGroupSeries, ApiClient.FETCH_ALL_DEADLINE_MILLIS);
+                for (Map.Entry<String, Map<String, RateSeries>> series : seriesObservations.entrySet()) {
+                    RateSeries fetched = series.getValue().get(series.getKey());
+                    if (fetched != null) {
+                        store.merge(series.getKey(), fetched);
+                    }
+                }
+            }
+            RateSnapshot.save();
+        }
+
+        Map<String, RateSeries> result = new HashMap<>();
+        for (String isoCode : isoCodes) {
+            RateSeries series = store.getSeries(isoCode);
+            if (!series.isEmpty()) {
+                result.put(isoCode, series);
+            }
+        }
+        return result;
     }
 
     /**
@@ -201,30 +315,55 @@ public class Util {
      * ISO code, new rate, and a date as parameters. It uses the provided `configurationService` to
      * create an `IExchangeRate` object with the specified ISO code, new rate, and date. Then, it
      * sets the exchange rate using the `configurationService` by calling the `setExchangeRate`
-     * method. If an exception occurs during the update process, it prints an error message and
-     * stack trace to the console.
+     * method. The time of the call is recorded in {@link TriggerMetrics}; if an exception occurs
+     * during the update process, it is counted as a failure and an error message is printed.
      * </p>
      *
      * @param configurationService The configuration service used to update the exchange rate.
      * @param isoCode              The ISO code for the currency.
      * @param newRate              The new exchange rate to be set.
      * @param date                 The date associated with the new exchange rate.
+     * @return True if the exchange rate was set.
      */
-    public static void updateOneRate(IConfigurationService configurationService, String isoCode, double newRate, Date date) {
+    public static boolean updateOneRate(IConfigurationService configurationService, String isoCode, double newRate, Date date) {
+        // The current rate is created without an effective date, OpenPages applies it from now on
+        return setExchangeRate(configurationService, isoCode, newRate, null);
+    }
+
+    /**
+     * Sets the exchange rate of a currency effective from the given date, used to backfill
+     * the rates of past months.
+     *
+     * @param configurationService The configuration service used to update the exchange rate.
+     * @param isoCode              The ISO code for the currency.
+     * @param newRate              The exchange rate to be set.
+     * @param effectiveDate        The date from which the exchange rate applies.
+     * @return True if the exchange rate was set.
+     */
+    public static boolean updateEffectiveRate(IConfigurationService configurationService, String isoCode,
+                                              double newRate, Date effectiveDate) {
+        return setExchangeRate(configurationService, isoCode, newRate, effectiveDate);
+    }
+
+    private static boolean setExchangeRate(IConfigurationService configurationService, String isoCode,
+                                           double newRate, Date effectiveDate) {
+        TriggerMetrics metrics = TriggerMetrics.getInstance();
+        long start = System.nanoTime();
         try {
             IExchangeRate exchangeRate = configurationService
                     .getConfigurationFactory()
-                    .createExchangeRate(configurationService, isoCode, newRate, null);
+                    .createExchangeRate(configurationService, isoCode, newRate, effectiveDate);
 
             configurationService.setExchangeRate(exchangeRate);
+            metrics.setExchangeRate.recordSince(start);
+            return true;
 
         } catch (Exception e) {
-            System.out.println("Exception: " + e.getMessage());
-            System.out.println(isoCode + " EXCEPTION");
-            System.out.println(newRate + " EXCEPTION");
-            e.printStackTrace();
+            metrics.failures.increment();
+            System.out.println("Could not set the exchange rate of " + isoCode + " to " + newRate + ": " + e);
         }
 
+        return false;
     }
 
     /**